@@ -2,47 +2,161 @@ package com.example.whatsappclone.Adapter;
 
 import android.app.AlertDialog;
 import android.content.Context;
-import android.content.DialogInterface;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.whatsappclone.Models.MessageModel;
 import com.example.whatsappclone.R;
-import com.example.whatsappclone.utils.AESUtils;
+import com.example.whatsappclone.utils.MessageTimeFormatter;
+import com.example.whatsappclone.utils.OutboundQueue;
+import com.example.whatsappclone.utils.WriteBatcher;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.FirebaseDatabase;
 
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-import java.security.PrivateKey;
+/**
+ * Messages are submitted as immutable snapshots with submitList(); the diff is
+ * computed on a background thread and only changed rows are rebound.
+ * Submitted MessageModel objects must not be mutated afterwards.
+ */
+public class ChatAdapter extends ListAdapter<MessageModel, RecyclerView.ViewHolder> {
+    private static final String TAG = "ChatAdapter";
 
-public class ChatAdapter extends RecyclerView.Adapter {
+    /** Only the message text changed, e.g. an edit or a late decryption */
+    public static final String PAYLOAD_TEXT = "text";
+    /** The row gained or lost its day separator because a neighbour changed */
+    public static final String PAYLOAD_DATE_HEADER = "dateHeader";
+    /** An outgoing message was sent, or its send failed */
+    public static final String PAYLOAD_DELIVERY = "delivery";
 
-    ArrayList<MessageModel> messageModels;
     Context context;
-    String recId;
+    // Database path of the room messages are deleted from, e.g. "chats/" + senderRoom
+    String roomPath;
+    String myUid = FirebaseAuth.getInstance().getUid();
     int SENDER_VIEW_TYPE = 1;
     int RECEIVER_VIEW_TYPE = 2;
-    PrivateKey privateKey;
-    
-    public ChatAdapter(Context context, ArrayList<MessageModel> messageModels) {
-        this.context = context;
-        this.messageModels = messageModels;
+    OnMessageDeletedListener onMessageDeletedListener;
+    // Ids of messages that start a new day, recomputed once per submitted list
+    private Set<String> firstOfDay = new HashSet<>();
+    // Outgoing messages that are not sent yet; everything else is sent
+    private final Map<String, OutboundQueue.State> deliveryStates = new HashMap<>();
+
+    public interface OnMessageDeletedListener {
+        void onMessageDeleted(MessageModel messageModel);
     }
 
+    private static final DiffUtil.ItemCallback<MessageModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageModel oldItem, @NonNull MessageModel newItem) {
+            return Objects.equals(oldItem.getMessageId(), newItem.getMessageId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageModel oldItem, @NonNull MessageModel newItem) {
+            return Objects.equals(oldItem.getUid(), newItem.getUid())
+                    && Objects.equals(oldItem.getMessage(), newItem.getMessage())
+                    && Objects.equals(oldItem.getTimestamp(), newItem.getTimestamp());
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull MessageModel oldItem, @NonNull MessageModel newItem) {
+            if (Objects.equals(oldItem.getUid(), newItem.getUid())
+                    && Objects.equals(oldItem.getTimestamp(), newItem.getTimestamp())) {
+                return PAYLOAD_TEXT;
+            }
+            return null;
+        }
+    };
 
-    // Updated constructor with PrivateKey
-    public ChatAdapter(ArrayList<MessageModel> messageModels, Context context, String recId, PrivateKey privateKey) {
-        this.messageModels = messageModels;
+    /**
+     * @param roomPath database path of the room the messages are deleted from, e.g. "chats/" + senderRoom
+     */
+    public ChatAdapter(Context context, String roomPath) {
+        super(DIFF_CALLBACK);
         this.context = context;
-        this.recId = recId;
-        this.privateKey = privateKey;
+        this.roomPath = roomPath;
+        setHasStableIds(true);
+        MessageTimeFormatter.watchChanges(context);
+    }
+
+    public void setOnMessageDeletedListener(OnMessageDeletedListener onMessageDeletedListener) {
+        this.onMessageDeletedListener = onMessageDeletedListener;
+    }
+
+    /**
+     * Show whether an outgoing message is still queued, sent, or waiting to be retried
+     */
+    public void setDeliveryState(String messageId, OutboundQueue.State state) {
+        if (state == OutboundQueue.State.SENT) {
+            if (deliveryStates.remove(messageId) == null) {
+                return;
+            }
+        } else if (deliveryStates.put(messageId, state) == state) {
+            return;
+        }
+        List<MessageModel> current = getCurrentList();
+        for (int i = current.size() - 1; i >= 0; i--) {
+            if (current.get(i).getMessageId().equals(messageId)) {
+                notifyItemChanged(i, PAYLOAD_DELIVERY);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableId(getItem(position).getMessageId());
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the message id; push keys are unique per room, so
+     * collisions are practically impossible
+     */
+    static long stableId(String messageId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < messageId.length(); i++) {
+            hash ^= messageId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public void onCurrentListChanged(@NonNull List<MessageModel> previousList, @NonNull List<MessageModel> currentList) {
+        Set<String> previous = firstOfDay;
+        firstOfDay = new HashSet<>();
+        int lastDay = -1;
+        for (MessageModel model : currentList) {
+            int day = MessageTimeFormatter.dayKey(model.getTimestamp());
+            if (day != lastDay) {
+                firstOfDay.add(model.getMessageId());
+                lastDay = day;
+            }
+        }
+
+        // The diff only rebinds changed rows, so fix up rows whose separator moved
+        Set<String> inPrevious = new HashSet<>(previousList.size() * 2);
+        for (MessageModel model : previousList) {
+            inPrevious.add(model.getMessageId());
+        }
+        for (int i = 0; i < currentList.size(); i++) {
+            String messageId = currentList.get(i).getMessageId();
+            if (inPrevious.contains(messageId) && previous.contains(messageId) != firstOfDay.contains(messageId)) {
+                notifyItemChanged(i, PAYLOAD_DATE_HEADER);
+            }
+        }
     }
 
     @NonNull
@@ -59,7 +173,7 @@ public class ChatAdapter extends RecyclerView.Adapter {
 
     @Override
     public int getItemViewType(int position) {
-        if (messageModels.get(position).getUid().equals(FirebaseAuth.getInstance().getUid())) {
+        if (getItem(position).getUid().equals(myUid)) {
             return SENDER_VIEW_TYPE;
         } else {
             return RECEIVER_VIEW_TYPE;
@@ -67,53 +181,127 @@ public class ChatAdapter extends RecyclerView.Adapter {
     }
 
     @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
 
+        // Partial rebind, leave the rest of the row untouched
+        MessageModel messageModel = getItem(position);
+        if (payloads.contains(PAYLOAD_TEXT)) {
+            bindText(holder, messageModel);
+        }
+        if (payloads.contains(PAYLOAD_DATE_HEADER)) {
+            bindDateHeader(holder, messageModel);
+        }
+        if (payloads.contains(PAYLOAD_DELIVERY)) {
+            bindTime(holder, messageModel);
+        }
+    }
+
+    @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        MessageModel messageModel = messageModels.get(position);
+        MessageModel messageModel = getItem(position);
 
         holder.itemView.setOnLongClickListener(v -> {
+            if (deliveryStates.get(messageModel.getMessageId()) == OutboundQueue.State.REJECTED) {
+                showRejectedDialog(messageModel);
+                return true;
+            }
             new AlertDialog.Builder(context)
                     .setTitle("Delete")
                     .setMessage("Are you sure you want to delete this message?")
                     .setPositiveButton("Yes", (dialog, which) -> {
-                        FirebaseDatabase database = FirebaseDatabase.getInstance();
-                        String senderRoom = FirebaseAuth.getInstance().getUid() + recId;
-                        database.getReference().child("chats")
-                                .child(senderRoom)
-                                .child(messageModel.getMessageId())
-                                .setValue(null);
+                        Map<String, Object> updates = new HashMap<>();
+                        updates.put(roomPath + "/" + messageModel.getMessageId(), null);
+                        WriteBatcher.getInstance().submit(updates, error -> {
+                            if (error != null) {
+                                Log.e(TAG, "Failed to delete message", error);
+                                return;
+                            }
+                            // Older pages are not live, so tell the owner of the list directly
+                            if (onMessageDeletedListener != null) {
+                                onMessageDeletedListener.onMessageDeleted(messageModel);
+                            }
+                        });
                     })
                     .setNegativeButton("No", (dialog, which) -> dialog.dismiss())
                     .show();
             return false;
         });
 
+        bindText(holder, messageModel);
+        bindDateHeader(holder, messageModel);
+        bindTime(holder, messageModel);
+    }
+
+    /**
+     * A message the database refused is not retried; the user resends or deletes it
+     */
+    private void showRejectedDialog(MessageModel messageModel) {
+        OutboundQueue outbox = OutboundQueue.getInstance(context);
+        new AlertDialog.Builder(context)
+                .setTitle("Not sent")
+                .setMessage("This message was rejected by the server.")
+                .setPositiveButton("Resend", (dialog, which) -> outbox.resend(messageModel.getMessageId()))
+                .setNegativeButton("Delete", (dialog, which) -> {
+                    outbox.discard(messageModel.getMessageId());
+                    deliveryStates.remove(messageModel.getMessageId());
+                    if (onMessageDeletedListener != null) {
+                        onMessageDeletedListener.onMessageDeleted(messageModel);
+                    }
+                })
+                .show();
+    }
+
+    private void bindTime(RecyclerView.ViewHolder holder, MessageModel messageModel) {
+        String strDate = MessageTimeFormatter.formatTime(messageModel.getTimestamp());
+        if (holder instanceof SenderHolder) {
+            OutboundQueue.State state = deliveryStates.get(messageModel.getMessageId());
+            if (state == OutboundQueue.State.PENDING) {
+                strDate += " · sending";
+            } else if (state == OutboundQueue.State.FAILED) {
+                strDate += " · not sent, retrying";
+            } else if (state == OutboundQueue.State.REJECTED) {
+                strDate += " · not sent, hold to resend";
+            }
+            ((SenderHolder) holder).senderTime.setText(strDate);
+        } else {
+            ((ReceiverHolder) holder).receiveTime.setText(strDate);
+        }
+    }
+
+    private void bindText(RecyclerView.ViewHolder holder, MessageModel messageModel) {
         String decryptedMsg = messageModel.getMessage(); // ✅ Already decrypted
 
         if (holder instanceof SenderHolder) {
             ((SenderHolder) holder).senderMsg.setText(decryptedMsg);
-
-            Date date = new Date(messageModel.getTimestamp());
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("h:mm a");
-            String strDate = simpleDateFormat.format(date);
-            ((SenderHolder) holder).senderTime.setText(strDate);
         } else {
             ((ReceiverHolder) holder).receiverMsg.setText(decryptedMsg);
+        }
+    }
 
-            Date date = new Date(messageModel.getTimestamp());
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("h:mm a");
-            String strDate = simpleDateFormat.format(date);
-            ((ReceiverHolder) holder).receiveTime.setText(strDate);
+    private void bindDateHeader(RecyclerView.ViewHolder holder, MessageModel messageModel) {
+        TextView dateHeader = ((MessageHolder) holder).dateHeader;
+        if (firstOfDay.contains(messageModel.getMessageId()) && messageModel.getTimestamp() != null) {
+            dateHeader.setText(MessageTimeFormatter.formatDay(messageModel.getTimestamp()));
+            dateHeader.setVisibility(View.VISIBLE);
+        } else {
+            dateHeader.setVisibility(View.GONE);
         }
     }
 
+    public static class MessageHolder extends RecyclerView.ViewHolder {
+        TextView dateHeader;
 
-    @Override
-    public int getItemCount() {
-        return messageModels.size();
+        public MessageHolder(@NonNull View itemView) {
+            super(itemView);
+            dateHeader = itemView.findViewById(R.id.dateHeader);
+        }
     }
 
-    public class ReceiverHolder extends RecyclerView.ViewHolder {
+    public class ReceiverHolder extends MessageHolder {
         TextView receiverMsg, receiveTime;
 
         public ReceiverHolder(@NonNull View itemView) {
@@ -123,7 +311,7 @@ public class ChatAdapter extends RecyclerView.Adapter {
         }
     }
 
-    public class SenderHolder extends RecyclerView.ViewHolder {
+    public class SenderHolder extends MessageHolder {
         TextView senderMsg, senderTime;
 
         public SenderHolder(@NonNull View itemView) {
@@ -1,26 +1,31 @@
 package com.example.whatsappclone.Adapter;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
-import androidx.fragment.app.FragmentManager;
-import androidx.fragment.app.FragmentPagerAdapter;
+import androidx.fragment.app.FragmentActivity;
+import androidx.viewpager2.adapter.FragmentStateAdapter;
 
 import com.example.whatsappclone.Fragment.CallsFragment;
 import com.example.whatsappclone.Fragment.ChatsFragment;
 import com.example.whatsappclone.Fragment.StatusFragment;
 
-public class Freagmentadapter extends FragmentPagerAdapter {
-    public Freagmentadapter(@NonNull FragmentManager fm) {
-        super(fm);
+/**
+ * Pages of the main screen for a ViewPager2
+ *
+ * A page's fragment is created the first time it is scrolled to, not when the
+ * adapter is attached, and pages far enough off screen are destroyed with their
+ * state saved, so only the visible tab holds a view.
+ */
+public class Freagmentadapter extends FragmentStateAdapter {
+    public Freagmentadapter(@NonNull FragmentActivity activity) {
+        super(activity);
     }
 
     @NonNull
     @Override
-    public Fragment getItem(int position) {
+    public Fragment createFragment(int position) {
         switch (position)
         {
-            case 0:return new ChatsFragment();
             case 1:return new StatusFragment();
             case 2:return new CallsFragment();
             default:return new ChatsFragment();
@@ -28,13 +33,11 @@ public class Freagmentadapter extends FragmentPagerAdapter {
     }
 
     @Override
-    public int getCount() {
+    public int getItemCount() {
         return 3;
     }
 
-    @Nullable
-    @Override
-    public CharSequence getPageTitle(int position) {
+    public static CharSequence getPageTitle(int position) {
         String title=null;
         if(position==0){
             title="CHATS";
@@ -13,28 +13,52 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.whatsappclone.ChatdetailActivity;
+import com.example.whatsappclone.GroupChatActivity;
+import com.example.whatsappclone.Models.ConversationSummary;
+import com.example.whatsappclone.Models.GroupInfo;
+import com.example.whatsappclone.Models.MessageModel;
 import com.example.whatsappclone.Models.Users;
 import com.example.whatsappclone.R;
+import com.example.whatsappclone.utils.AESUtils;
+import com.example.whatsappclone.utils.CryptoExecutor;
+import com.example.whatsappclone.utils.GroupKeyManager;
 import com.example.whatsappclone.utils.HybridEncryption;
+import com.example.whatsappclone.utils.MessageEnvelopes;
+import com.example.whatsappclone.utils.MessageStore;
 import com.example.whatsappclone.utils.RSAKeyManager;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 import com.squareup.picasso.Picasso;
 
 import java.security.PrivateKey;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
 
 public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.ViewHolder> {
     ArrayList<Users> list;
     Context context;
     private PrivateKey privateKey;
+    private final MessageStore store;
+    private final Map<String, ConversationSummary> summaries;
+    private final Map<String, GroupInfo> groups;
+    private final GroupKeyManager groupKeys;
+    private final HashMap<String, String> previews = new HashMap<>();
 
-    public UsersAdapter(Context context, ArrayList<Users> list) {
+    /**
+     * @param summaries conversation summaries by other user's id, kept up to date by the owner
+     * @param groups    info of the groups listed, by group id, kept up to date by the owner
+     */
+    public UsersAdapter(Context context, ArrayList<Users> list, Map<String, ConversationSummary> summaries,
+                        Map<String, GroupInfo> groups) {
         this.context = context;
         this.list = list;
+        this.summaries = summaries;
+        this.groups = groups;
+        this.store = MessageStore.getInstance(context);
+        this.groupKeys = GroupKeyManager.getInstance(context);
 
         // Load private key for decryption
         try {
@@ -71,56 +95,21 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.ViewHolder>
         }
 
         holder.userName.setText(users.getUserName());
+        holder.itemView.setTag(users.getUserId());
 
-        // Fetch last encrypted message from Firebase and decrypt it
-        FirebaseDatabase.getInstance().getReference().child("chats")
-                .child(FirebaseAuth.getInstance().getUid() + users.getUserId())
-                .orderByChild("timestamp")
-                .limitToLast(1)
-                .addValueEventListener(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        if (snapshot.hasChildren()) {
-                            for (DataSnapshot snapshot1 : snapshot.getChildren()) {
-                                String encryptedMessage = snapshot1.child("message").getValue(String.class);
-                                String encryptedSessionKey = snapshot1.child("encryptedSessionKey").getValue(String.class);
-                                Long timestamp = snapshot1.child("timestamp").getValue(Long.class);
-                                
-                                // Update the user's last message time for sorting
-                                if (timestamp != null) {
-                                    users.setLastMessageTime(timestamp);
-                                }
-                                
-                                if (encryptedMessage != null && encryptedSessionKey != null && privateKey != null) {
-                                    try {
-                                        // Decrypt using hybrid encryption
-                                        HybridEncryption.EncryptedMessage encMsg = 
-                                            new HybridEncryption.EncryptedMessage(encryptedMessage, encryptedSessionKey);
-                                        String decryptedMessage = HybridEncryption.decrypt(encMsg, privateKey);
-                                        holder.lastMessage.setText(decryptedMessage);
-                                    } catch (Exception e) {
-                                        Log.e("UsersAdapter", "Decryption failed for last message", e);
-                                        holder.lastMessage.setText("[Encrypted message]");
-                                    }
-                                } else if (encryptedMessage != null) {
-                                    // Old message without encryption or missing keys
-                                    holder.lastMessage.setText("[Encrypted message]");
-                                } else {
-                                    holder.lastMessage.setText("");
-                                }
-                            }
-                        } else {
-                            holder.lastMessage.setText("");
-                            users.setLastMessageTime(0L); // No messages yet
-                        }
-                    }
+        GroupInfo group = groups.get(users.getUserId());
+        if (group != null) {
+            bindGroup(holder, users, group);
+            return;
+        }
 
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
-                        Log.e("UsersAdapter", "Failed to fetch last message", error.toException());
-                        holder.lastMessage.setText("");
-                    }
-                });
+        ConversationSummary summary = summaries.get(users.getUserId());
+        bindUnreadCount(holder, summary);
+        if (summary != null && (summary.getEnvelopeId() != null || summary.getLastMessage() != null)) {
+            bindLastMessage(holder, users, summary);
+        } else {
+            bindStoredLastMessage(holder, users);
+        }
 
         holder.itemView.setOnClickListener(v -> {
             Intent intent = new Intent(context, ChatdetailActivity.class);
@@ -131,6 +120,169 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.ViewHolder>
         });
     }
 
+    /**
+     * Decrypt the summary's last message off the UI thread, fetching its body from
+     * the envelope; previews are kept per session key so rebinding a row does not
+     * fetch or decrypt again
+     */
+    private void bindLastMessage(ViewHolder holder, Users users, ConversationSummary summary) {
+        String encryptedSessionKey = summary.getEncryptedSessionKey();
+
+        String preview = previews.get(encryptedSessionKey);
+        if (preview != null) {
+            holder.lastMessage.setText(preview);
+            return;
+        }
+        if (encryptedSessionKey == null || privateKey == null) {
+            // Old message without encryption or missing keys
+            holder.lastMessage.setText("[Encrypted message]");
+            return;
+        }
+
+        holder.lastMessage.setText("");
+        String envelopeId = summary.getEnvelopeId();
+        if (summary.getLastMessage() != null || envelopeId == null) {
+            // Summary from before envelope ids, with the body inline
+            decryptLastMessage(holder, users, summary.getLastMessage(), encryptedSessionKey);
+            return;
+        }
+        MessageEnvelopes.resolve(FirebaseDatabase.getInstance().getReference(MessageEnvelopes.NODE), envelopeId,
+                bodies -> {
+                    String body = bodies.get(envelopeId);
+                    if (body != null) {
+                        decryptLastMessage(holder, users, body, encryptedSessionKey);
+                    } else if (users.getUserId().equals(holder.itemView.getTag())) {
+                        // Deleted, or not fetched; the next bind tries again
+                        holder.lastMessage.setText("");
+                    }
+                });
+    }
+
+    private void decryptLastMessage(ViewHolder holder, Users users, String encryptedMessage, String encryptedSessionKey) {
+        HybridEncryption.EncryptedMessage encMsg =
+            new HybridEncryption.EncryptedMessage(encryptedMessage, encryptedSessionKey);
+        CryptoExecutor.submit(() -> HybridEncryption.decrypt(encMsg, privateKey),
+            new CryptoExecutor.Callback<String>() {
+                @Override
+                public void onResult(String decryptedMessage) {
+                    previews.put(encryptedSessionKey, decryptedMessage);
+                    // The row may have been recycled for another user meanwhile
+                    if (users.getUserId().equals(holder.itemView.getTag())) {
+                        holder.lastMessage.setText(decryptedMessage);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e("UsersAdapter", "Decryption failed for last message", e);
+                    if (users.getUserId().equals(holder.itemView.getTag())) {
+                        holder.lastMessage.setText("[Encrypted message]");
+                    }
+                }
+            });
+    }
+
+    /**
+     * A group row: the last message is decrypted with the group key, which is
+     * unwrapped once and shared with the group's chat screen
+     */
+    private void bindGroup(ViewHolder holder, Users users, GroupInfo group) {
+        holder.unreadCount.setVisibility(View.GONE);
+        holder.itemView.setOnClickListener(v -> {
+            Intent intent = new Intent(context, GroupChatActivity.class);
+            intent.putExtra("groupId", users.getUserId());
+            intent.putExtra("groupName", users.getUserName());
+            context.startActivity(intent);
+        });
+
+        String encryptedMessage = group.getLastMessage();
+        if (encryptedMessage == null || group.getKeyId() == null) {
+            holder.lastMessage.setText("");
+            return;
+        }
+        String preview = previews.get(encryptedMessage);
+        if (preview != null) {
+            holder.lastMessage.setText(preview);
+            return;
+        }
+
+        holder.lastMessage.setText("");
+        String groupId = users.getUserId();
+        groupKeys.keyFor(groupId, group.getKeyId(), new CryptoExecutor.Callback<SecretKey>() {
+            @Override
+            public void onResult(SecretKey key) {
+                if (key == null) {
+                    previews.put(encryptedMessage, "[Encrypted message]");
+                    if (groupId.equals(holder.itemView.getTag())) {
+                        holder.lastMessage.setText("[Encrypted message]");
+                    }
+                    return;
+                }
+                bindGroupPreview(holder, groupId, encryptedMessage, key);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Not cached, so the next bind fetches the key again
+                Log.w("UsersAdapter", "Group key unavailable for last message: " + e.getMessage());
+                if (groupId.equals(holder.itemView.getTag())) {
+                    holder.lastMessage.setText("[Encrypted message]");
+                }
+            }
+        });
+    }
+
+    private void bindGroupPreview(ViewHolder holder, String groupId, String encryptedMessage, SecretKey key) {
+        CryptoExecutor.submit(() -> AESUtils.decrypt(encryptedMessage, key), new CryptoExecutor.Callback<String>() {
+            @Override
+            public void onResult(String decryptedMessage) {
+                previews.put(encryptedMessage, decryptedMessage);
+                if (groupId.equals(holder.itemView.getTag())) {
+                    holder.lastMessage.setText(decryptedMessage);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e("UsersAdapter", "Decryption failed for group last message", e);
+                if (groupId.equals(holder.itemView.getTag())) {
+                    holder.lastMessage.setText("[Encrypted message]");
+                }
+            }
+        });
+    }
+
+    /**
+     * Conversations from before the summary index have no summary; fall back to the local store
+     */
+    private void bindStoredLastMessage(ViewHolder holder, Users users) {
+        holder.lastMessage.setText("");
+        String roomId = "chats/" + FirebaseAuth.getInstance().getUid() + users.getUserId();
+        CryptoExecutor.submit(() -> store.latest(roomId), new CryptoExecutor.Callback<MessageModel>() {
+            @Override
+            public void onResult(MessageModel latest) {
+                if (latest != null && users.getUserId().equals(holder.itemView.getTag())) {
+                    holder.lastMessage.setText(latest.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e("UsersAdapter", "Failed to read stored last message", e);
+            }
+        });
+    }
+
+    private void bindUnreadCount(ViewHolder holder, ConversationSummary summary) {
+        long unread = summary != null && summary.getUnreadCount() != null ? summary.getUnreadCount() : 0;
+        if (unread > 0) {
+            holder.unreadCount.setText(unread > 99 ? "99+" : String.valueOf(unread));
+            holder.unreadCount.setVisibility(View.VISIBLE);
+        } else {
+            holder.unreadCount.setVisibility(View.GONE);
+        }
+    }
+
     @Override
     public int getItemCount() {
         return list != null ? list.size() : 0;
@@ -138,13 +290,14 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.ViewHolder>
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         ImageView imageView;
-        TextView userName, lastMessage;
+        TextView userName, lastMessage, unreadCount;
 
         public ViewHolder(View itemView) {
             super(itemView);
             imageView = itemView.findViewById(R.id.profilePic);
             userName = itemView.findViewById(R.id.userNamelist);
             lastMessage = itemView.findViewById(R.id.lastMessage);
+            unreadCount = itemView.findViewById(R.id.unreadCount);
         }
     }
 }
\ No newline at end of file
@@ -6,7 +6,6 @@ import android.util.Log;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
@@ -16,27 +15,43 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import com.example.whatsappclone.Adapter.ChatAdapter;
 import com.example.whatsappclone.Models.MessageModel;
 import com.example.whatsappclone.databinding.ActivityChatdetailBinding;
+import com.example.whatsappclone.utils.ConversationSummaries;
+import com.example.whatsappclone.utils.CryptoExecutor;
 import com.example.whatsappclone.utils.HybridEncryption;
+import com.example.whatsappclone.utils.KeyProvisioner;
+import com.example.whatsappclone.utils.MessageEncoding;
+import com.example.whatsappclone.utils.MessageEnvelopes;
+import com.example.whatsappclone.utils.MessagePager;
+import com.example.whatsappclone.utils.MessageStore;
+import com.example.whatsappclone.utils.OutboundQueue;
+import com.example.whatsappclone.utils.PublicKeyDirectory;
 import com.example.whatsappclone.utils.RSAKeyManager;
+import com.example.whatsappclone.utils.UserProfiles;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ChatdetailActivity extends AppCompatActivity {
     private static final String TAG = "ChatdetailActivity";
     ActivityChatdetailBinding binding;
     FirebaseDatabase database;
     FirebaseAuth auth;
-    PrivateKey myPrivateKey;
-    PublicKey recipientPublicKey;
+    String receiverId;
+    volatile PrivateKey myPrivateKey;
+    volatile PublicKey recipientPublicKey;
+    PublicKeyDirectory keyDirectory;
+    PublicKeyDirectory.Listener recipientKeyListener;
+    ChatAdapter chatAdapter;
+    MessagePager pager;
+    OutboundQueue outbox;
+    OutboundQueue.Listener outboxListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,7 +64,7 @@ public class ChatdetailActivity extends AppCompatActivity {
         auth = FirebaseAuth.getInstance();
 
         final String senderId = auth.getUid();
-        String receiverId = getIntent().getStringExtra("userId");
+        receiverId = getIntent().getStringExtra("userId");
         String userName = getIntent().getStringExtra("userName");
         String profilePic = getIntent().getStringExtra("profilePic");
 
@@ -65,121 +80,69 @@ public class ChatdetailActivity extends AppCompatActivity {
         myPrivateKey = RSAKeyManager.loadPrivateKey(this);
         if (myPrivateKey == null) {
             Log.e(TAG, "Failed to load private key");
-            
-            // Try to generate keys if they don't exist
-            try {
-                Log.d(TAG, "Attempting to generate new encryption keys...");
-                KeyPair keyPair = RSAKeyManager.generateKeyPair();
-                RSAKeyManager.saveKeyPair(this, keyPair);
-                myPrivateKey = keyPair.getPrivate();
-                
-                // Save public key to Firebase
-                String publicKeyStr = RSAKeyManager.publicKeyToString(keyPair.getPublic());
-                String currentUserId = auth.getUid();
-                database.getReference("PublicKeys").child(currentUserId).setValue(publicKeyStr)
-                    .addOnSuccessListener(unused -> {
-                        Log.d(TAG, "New encryption keys generated successfully");
-                        Toast.makeText(this, "Encryption setup complete. Please try again.", Toast.LENGTH_SHORT).show();
-                    });
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to generate encryption keys", e);
-                Toast.makeText(this, "Encryption setup failed. Please restart the app and try again.", Toast.LENGTH_LONG).show();
-                finish();
-                return;
-            }
+
+            // Keys are still being set up (or failed earlier); wait for them without blocking the UI thread
+            KeyProvisioner.getInstance(this).ensureKeys(auth.getUid(), new CryptoExecutor.Callback<KeyPair>() {
+                @Override
+                public void onResult(KeyPair keyPair) {
+                    myPrivateKey = keyPair.getPrivate();
+                    Log.d(TAG, "Encryption keys ready");
+                    if (!isDestroyed()) {
+                        showMessages(senderId + receiverId);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to generate encryption keys", e);
+                    Toast.makeText(ChatdetailActivity.this, "Encryption setup failed. Please restart the app and try again.", Toast.LENGTH_LONG).show();
+                    finish();
+                }
+            });
         } else {
             Log.d(TAG, "Private key loaded successfully");
         }
 
-        // Fetch recipient's public key from Firebase (for encryption)
-        database.getReference("PublicKeys").child(receiverId)
-                .addListenerForSingleValueEvent(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        String publicKeyStr = snapshot.getValue(String.class);
-                        if (publicKeyStr != null) {
-                            try {
-                                recipientPublicKey = RSAKeyManager.stringToPublicKey(publicKeyStr);
-                                Log.d(TAG, "Recipient's public key loaded successfully");
-                                Toast.makeText(ChatdetailActivity.this, "Secure chat ready", Toast.LENGTH_SHORT).show();
-                            } catch (Exception e) {
-                                Log.e(TAG, "Failed to load recipient's public key", e);
-                                Toast.makeText(ChatdetailActivity.this, "Failed to load encryption key", Toast.LENGTH_SHORT).show();
-                            }
-                        } else {
-                            Log.w(TAG, "Recipient has no public key in database - recipient needs to open the app");
-                            Toast.makeText(ChatdetailActivity.this, 
-                                "The recipient needs to open the app first to enable encrypted messaging. You can still send messages once they do.", 
-                                Toast.LENGTH_LONG).show();
-                            
-                            // Keep checking for recipient's key every 3 seconds
-                            retryFetchingRecipientKey(receiverId, 0);
-                        }
-                    }
-
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
-                        Log.e(TAG, "Failed to fetch recipient's public key", error.toException());
-                        Toast.makeText(ChatdetailActivity.this, "Network error. Please check your connection.", Toast.LENGTH_SHORT).show();
-                    }
-                });
+        // Recipient's public key (for encryption): known contacts are served from the
+        // directory's cache right away, and a key published later arrives through its listener
+        keyDirectory = PublicKeyDirectory.getInstance(this);
+        recipientKeyListener = new PublicKeyDirectory.Listener() {
+            @Override
+            public void onKeyAvailable(String userId, PublicKey publicKey) {
+                boolean firstKey = recipientPublicKey == null;
+                recipientPublicKey = publicKey;
+                Log.d(TAG, "Recipient's public key loaded successfully");
+                if (firstKey) {
+                    Toast.makeText(ChatdetailActivity.this, "Secure chat ready", Toast.LENGTH_SHORT).show();
+                }
+            }
 
-        final ArrayList<MessageModel> messageModels = new ArrayList<>();
-        final ChatAdapter chatAdapter = new ChatAdapter(messageModels, this, receiverId, myPrivateKey);
-        binding.chatRecycleView.setAdapter(chatAdapter);
-        binding.chatRecycleView.setLayoutManager(new LinearLayoutManager(this));
+            @Override
+            public void onKeyMissing(String userId) {
+                if (recipientPublicKey == null) {
+                    Log.w(TAG, "Recipient has no public key in database - recipient needs to open the app");
+                    Toast.makeText(ChatdetailActivity.this,
+                        "The recipient needs to open the app first to enable encrypted messaging. You can still send messages once they do.",
+                        Toast.LENGTH_LONG).show();
+                }
+            }
+        };
+        keyDirectory.watch(receiverId, recipientKeyListener);
 
         final String senderRoom = senderId + receiverId;
         final String receiverRoom = receiverId + senderId;
 
-        // Listen for messages and decrypt them
-        database.getReference("chats").child(senderRoom)
-                .addValueEventListener(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        messageModels.clear();
-                        for (DataSnapshot snap : snapshot.getChildren()) {
-                            MessageModel model = snap.getValue(MessageModel.class);
-                            if (model != null) {
-                                model.setMessageId(snap.getKey());
-                                
-                                // Decrypt the message using hybrid decryption
-                                try {
-                                    if (model.getMessage() != null && model.getEncryptedSessionKey() != null) {
-                                        HybridEncryption.EncryptedMessage encMsg = 
-                                            new HybridEncryption.EncryptedMessage(
-                                                model.getMessage(), 
-                                                model.getEncryptedSessionKey()
-                                            );
-                                        
-                                        String decrypted = HybridEncryption.decrypt(encMsg, myPrivateKey);
-                                        model.setMessage(decrypted);
-                                    } else {
-                                        // Handle old unencrypted messages or missing keys
-                                        model.setMessage("[Encryption data missing]");
-                                    }
-                                } catch (Exception e) {
-                                    Log.e(TAG, "Decryption failed for message", e);
-                                    model.setMessage("[Decryption failed]");
-                                }
-                                
-                                messageModels.add(model);
-                            }
-                        }
-                        chatAdapter.notifyDataSetChanged();
-                        
-                        // Scroll to latest message
-                        if (messageModels.size() > 0) {
-                            binding.chatRecycleView.smoothScrollToPosition(messageModels.size() - 1);
-                        }
-                    }
+        chatAdapter = new ChatAdapter(this, "chats/" + senderRoom);
+        binding.chatRecycleView.setAdapter(chatAdapter);
+        binding.chatRecycleView.setLayoutManager(new LinearLayoutManager(this));
 
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
-                        Log.e(TAG, "Database error: " + error.getMessage());
-                    }
-                });
+        final String roomId = "chats/" + senderRoom;
+        outbox = OutboundQueue.getInstance(this);
+
+        // Without a private key nothing can be decrypted yet; the messages are shown once keys are ready
+        if (myPrivateKey != null) {
+            showMessages(senderRoom);
+        }
 
         binding.send.setOnClickListener(v -> {
             String messageText = binding.enterMessage.getText().toString().trim();
@@ -194,61 +157,59 @@ public class ChatdetailActivity extends AppCompatActivity {
                 return;
             }
 
-            try {
-                // Encrypt twice: one copy for recipient (with recipient's public key)
-                // and one copy for the sender (with sender's own public key) so the
-                // sender can decrypt their sent message in their own room.
-
-                // Encrypt for recipient
-                HybridEncryption.EncryptedMessage encForRecipient =
-                        HybridEncryption.encrypt(messageText, recipientPublicKey);
+            binding.enterMessage.setText("");
 
-                // Encrypt for sender (self)
+            // Encrypt once for both participants: the body is shared and only the
+            // session key is wrapped separately for the recipient and for ourselves
+            final PublicKey recipientKey = recipientPublicKey;
+            CryptoExecutor.submit(() -> {
                 PublicKey myPublicKey = RSAKeyManager.loadPublicKey(this);
                 if (myPublicKey == null) {
-                    Log.e(TAG, "Sender public key missing while sending message");
-                    Toast.makeText(this, "Encryption not initialized. Please reopen the app.", Toast.LENGTH_LONG).show();
-                    return;
+                    throw new IllegalStateException("Encryption not initialized. Please reopen the app.");
                 }
-                HybridEncryption.EncryptedMessage encForSender =
-                        HybridEncryption.encrypt(messageText, myPublicKey);
-
-                // Build message models
-                MessageModel messageForSender = new MessageModel(
-                        senderId,
-                        encForSender.getEncryptedData(),
-                        encForSender.getEncryptedSessionKey()
-                );
-                messageForSender.setTimestamp(new Date().getTime());
-
-                MessageModel messageForReceiver = new MessageModel(
-                        senderId,
-                        encForRecipient.getEncryptedData(),
-                        encForRecipient.getEncryptedSessionKey()
-                );
-                messageForReceiver.setTimestamp(messageForSender.getTimestamp());
-
-                binding.enterMessage.setText("");
-
-                // Save encrypted copies to respective rooms
-                database.getReference("chats").child(senderRoom).push().setValue(messageForSender)
-                        .addOnSuccessListener(unused -> {
-                            database.getReference("chats").child(receiverRoom).push().setValue(messageForReceiver)
-                                    .addOnSuccessListener(u2 -> Log.d(TAG, "Message sent and encrypted successfully"))
-                                    .addOnFailureListener(e -> {
-                                        Log.e(TAG, "Failed to send message to receiver room", e);
-                                        Toast.makeText(ChatdetailActivity.this, "Failed to deliver to recipient", Toast.LENGTH_SHORT).show();
-                                    });
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Failed to send message", e);
-                            Toast.makeText(ChatdetailActivity.this, "Failed to send message", Toast.LENGTH_SHORT).show();
-                        });
-
-            } catch (Exception e) {
-                Log.e(TAG, "Encryption failed", e);
-                Toast.makeText(this, "Encryption failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            }
+
+                Map<String, PublicKey> recipients = new HashMap<>();
+                recipients.put(receiverId, recipientKey);
+                recipients.put(senderId, myPublicKey);
+                return HybridEncryption.encryptForRecipients(messageText, recipients);
+            }, new CryptoExecutor.Callback<HybridEncryption.Envelope>() {
+                @Override
+                public void onResult(HybridEncryption.Envelope envelope) {
+                    DatabaseReference root = database.getReference();
+                    String messageId = root.child("chats").child(senderRoom).push().getKey();
+                    long timestamp = new Date().getTime();
+
+                    Map<String, String> rooms = new HashMap<>();
+                    rooms.put(senderId, "chats/" + senderRoom);
+                    rooms.put(receiverId, "chats/" + receiverRoom);
+
+                    // Envelope, both room entries and both summaries land in one atomic write;
+                    // the summaries reference the envelope rather than copying its body
+                    Map<String, Object> updates = new HashMap<>();
+                    MessageEnvelopes.put(updates, messageId, senderId, timestamp, envelope, rooms);
+                    ConversationSummaries.putSend(updates, senderId, receiverId, timestamp, messageId, envelope);
+                    // A first message lists each participant in the other's contacts
+                    UserProfiles.putChatContacts(updates, senderId, receiverId);
+
+                    // Journaled and retried until written; shown right away with its delivery state
+                    OutboundQueue.Entry entry = new OutboundQueue.Entry(roomId, messageId, senderId,
+                            messageText, timestamp, updates);
+                    outbox.enqueue(entry);
+                    if (pager != null) {
+                        pager.addLocal(entry.toMessage());
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Encryption failed", e);
+                    Toast.makeText(ChatdetailActivity.this, "Encryption failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    // Give the user their text back so the message is not lost
+                    if (binding.enterMessage.getText().length() == 0) {
+                        binding.enterMessage.setText(messageText);
+                    }
+                }
+            });
         });
 
         ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.main), (v, insets) -> {
@@ -259,44 +220,86 @@ public class ChatdetailActivity extends AppCompatActivity {
     }
 
     /**
-     * Retry fetching recipient's public key with exponential backoff
-     * This helps when the recipient hasn't opened the app yet
+     * Attach the pager and the outbox to the chat; needs the private key
      */
-    private void retryFetchingRecipientKey(String receiverId, int attemptCount) {
-        if (attemptCount >= 10) {
-            Log.d(TAG, "Stopped retrying to fetch recipient's key after 10 attempts");
-            return;
+    private void showMessages(String senderRoom) {
+        // Show stored messages right away; only newer ones are fetched, older pages load as the user scrolls up
+        pager = new MessagePager(database.getReference("chats").child(senderRoom), "chats/" + senderRoom,
+                MessageStore.getInstance(this), this::decryptMessage);
+        pager.attach(binding.chatRecycleView);
+        chatAdapter.setOnMessageDeletedListener(model -> pager.remove(model.getMessageId()));
+
+        // Messages still queued from earlier visits, and the state of everything sent from here
+        final String roomId = "chats/" + senderRoom;
+        outboxListener = (room, messageId, state) -> {
+            if (room.equals(roomId)) {
+                chatAdapter.setDeliveryState(messageId, state);
+            }
+        };
+        outbox.addListener(outboxListener);
+        for (OutboundQueue.Entry entry : outbox.pending(roomId)) {
+            if (entry.hasBody()) {
+                pager.addLocal(entry.toMessage());
+            } else {
+                // Queued by an earlier process, which journaled only the encrypted update
+                pager.decodeLocal(entry.toStoredMessage());
+            }
+            chatAdapter.setDeliveryState(entry.getMessageId(), outbox.getState(roomId, entry.getMessageId()));
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        ConversationSummaries.markRead(database.getReference(), auth.getUid(), receiverId);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Messages that arrived while the chat was open have been seen
+        ConversationSummaries.markRead(database.getReference(), auth.getUid(), receiverId);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pager != null) {
+            pager.close();
+        }
+        if (outbox != null && outboxListener != null) {
+            outbox.removeListener(outboxListener);
+        }
+        if (keyDirectory != null) {
+            keyDirectory.unwatch(receiverId, recipientKeyListener);
+        }
+    }
+
+    /**
+     * Decrypt a message in place using hybrid decryption
+     *
+     * @throws Exception if it cannot be decrypted now; the pager keeps its place and tries again later
+     */
+    private boolean decryptMessage(MessageModel model) throws Exception {
+        if (model.getEncryptedSessionKey() == null) {
+            if (MessageEncoding.isGuessed(model) || MessageEncoding.of(model) == MessageEncoding.PLAINTEXT) {
+                // Sent before chats were encrypted, even if it looks like ciphertext
+                return model.getMessage() != null;
+            }
+            Log.w(TAG, "Message " + model.getMessageId() + " has no session key");
+            return false;
+        }
+        PrivateKey privateKey = myPrivateKey;
+        if (privateKey == null) {
+            throw new IllegalStateException("Private key not loaded yet");
         }
 
-        // Wait before retrying (3 seconds * attempt number for backoff)
-        new android.os.Handler().postDelayed(() -> {
-            database.getReference("PublicKeys").child(receiverId)
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(@NonNull DataSnapshot snapshot) {
-                            String publicKeyStr = snapshot.getValue(String.class);
-                            if (publicKeyStr != null) {
-                                try {
-                                    recipientPublicKey = RSAKeyManager.stringToPublicKey(publicKeyStr);
-                                    Log.d(TAG, "Recipient's public key loaded successfully on retry " + attemptCount);
-                                    Toast.makeText(ChatdetailActivity.this, 
-                                        "✓ Recipient is now online. You can send encrypted messages!", 
-                                        Toast.LENGTH_SHORT).show();
-                                } catch (Exception e) {
-                                    Log.e(TAG, "Failed to parse recipient's public key", e);
-                                }
-                            } else {
-                                // Key still not available, retry again
-                                Log.d(TAG, "Recipient key not found, retry attempt " + (attemptCount + 1));
-                                retryFetchingRecipientKey(receiverId, attemptCount + 1);
-                            }
-                        }
-
-                        @Override
-                        public void onCancelled(@NonNull DatabaseError error) {
-                            Log.e(TAG, "Error fetching recipient key on retry", error.toException());
-                        }
-                    });
-        }, 3000 + (attemptCount * 1000)); // Exponential backoff
+        HybridEncryption.EncryptedMessage encMsg =
+            new HybridEncryption.EncryptedMessage(
+                model.getMessage(),
+                model.getEncryptedSessionKey()
+            );
+        model.setMessage(HybridEncryption.decrypt(encMsg, privateKey));
+        return true;
     }
 }
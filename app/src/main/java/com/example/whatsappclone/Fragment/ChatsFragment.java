@@ -4,6 +4,7 @@ import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import android.util.Log;
@@ -12,18 +13,28 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.example.whatsappclone.Adapter.UsersAdapter;
+import com.example.whatsappclone.Models.ConversationSummary;
+import com.example.whatsappclone.Models.GroupInfo;
 import com.example.whatsappclone.Models.Users;
 import com.example.whatsappclone.R;
 import com.example.whatsappclone.databinding.FragmentChatsBinding;
+import com.example.whatsappclone.utils.ConversationIndex;
+import com.example.whatsappclone.utils.ConversationSummaries;
+import com.example.whatsappclone.utils.Groups;
+import com.example.whatsappclone.utils.PublicKeyDirectory;
+import com.example.whatsappclone.utils.StartupTrace;
+import com.example.whatsappclone.utils.UserProfiles;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 
 public class ChatsFragment extends Fragment {
 
@@ -34,18 +45,39 @@ public class ChatsFragment extends Fragment {
 
     private FragmentChatsBinding binding;
     private ArrayList<Users> list = new ArrayList<>();
+    private final HashMap<String, ConversationSummary> summaries = new HashMap<>();
+    // Info of this user's groups by group id; their rows share the list with users
+    private final HashMap<String, GroupInfo> groups = new HashMap<>();
     private FirebaseDatabase database;
+    private UsersAdapter adapter;
+    private ConversationIndex index;
+    private PublicKeyDirectory keyDirectory;
+    private DatabaseReference profilesRef;
+    private DatabaseReference contactsRef;
+    private DatabaseReference conversationsRef;
+    private ChildEventListener contactsListener;
+    private ChildEventListener conversationsListener;
+    private DatabaseReference groupsRef;
+    private DatabaseReference groupIndexRef;
+    private ChildEventListener groupIndexListener;
+    // One listener per group's info, only for the groups this user belongs to
+    private final HashMap<String, ValueEventListener> groupListeners = new HashMap<>();
+    // One listener per followed user's profile
+    private final HashMap<String, ValueEventListener> profileListeners = new HashMap<>();
+    private final HashSet<String> contacts = new HashSet<>();
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
+        StartupTrace.Span span = StartupTrace.get().begin("ChatsFragment.onCreateView");
         try {
             // Inflate the layout for this fragment
             binding = FragmentChatsBinding.inflate(inflater, container, false);
             database = FirebaseDatabase.getInstance();
+            keyDirectory = PublicKeyDirectory.getInstance(requireContext());
 
             // Set up RecyclerView with UsersAdapter
-            UsersAdapter adapter = new UsersAdapter(getContext(), list);
+            adapter = new UsersAdapter(getContext(), list, summaries, groups);
             Log.d(TAG, "List size before setting adapter: " + (list != null ? list.size() : "null"));
             binding.chatRecycleView.setAdapter(adapter);
 
@@ -53,33 +85,38 @@ public class ChatsFragment extends Fragment {
             LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
             binding.chatRecycleView.setLayoutManager(layoutManager);
 
-            // Fetch users from Firebase Database
-            database.getReference().child("Users").addValueEventListener(new ValueEventListener() {
+            // Rows are only inserted, moved or changed individually from here on
+            list.clear();
+            summaries.clear();
+            groups.clear();
+            index = new ConversationIndex(list, new AdapterListUpdateCallback(adapter));
+
+            // Only this user's contacts and conversation partners are listed; each row
+            // follows that user's profile, so a profile change touches a single row
+            String myId = FirebaseAuth.getInstance().getUid();
+            profilesRef = database.getReference().child(UserProfiles.NODE);
+            contactsRef = database.getReference().child(UserProfiles.CONTACTS_NODE).child(myId);
+            contactsListener = contactsRef.addChildEventListener(new ChildEventListener() {
+                @Override
+                public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+                    contacts.add(snapshot.getKey());
+                    follow(snapshot.getKey());
+                }
+
                 @Override
-                public void onDataChange(@NonNull DataSnapshot snapshot) {
-                    list.clear(); // Clear the list to avoid duplicates
-                    for (DataSnapshot dataSnapshot : snapshot.getChildren()) {
-                        try {
-                            Users user = dataSnapshot.getValue(Users.class);
-                            if (user != null) {
-                                user.setUserId(dataSnapshot.getKey());
-                                if(!user.getUserId().equals(FirebaseAuth.getInstance().getUid())) { // for not including yourself into chat can be removed to message yourself
-                                    list.add(user); // Add user to the list
-                                }
-                                Log.d(TAG, "User added: " + user.getUserName()); // Log user data
-                            } else {
-                                Log.e(TAG, "User data is null for key: " + dataSnapshot.getKey());
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error parsing user data", e);
-                        }
+                public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+                }
+
+                @Override
+                public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                    contacts.remove(snapshot.getKey());
+                    if (!summaries.containsKey(snapshot.getKey())) {
+                        unfollow(snapshot.getKey());
                     }
-                    Log.d(TAG, "Total users fetched: " + list.size());
-                    
-                    // Sort users by last message time (most recent first)
-                    sortUsersByLastMessage();
-                    
-                    adapter.notifyDataSetChanged(); // Notify the adapter of data changes
+                }
+
+                @Override
+                public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
                 }
 
                 @Override
@@ -88,25 +125,214 @@ public class ChatsFragment extends Fragment {
                 }
             });
 
+            // One listener for every conversation's last message and unread count
+            conversationsRef = database.getReference().child(ConversationSummaries.NODE)
+                    .child(FirebaseAuth.getInstance().getUid());
+            conversationsListener = conversationsRef.addChildEventListener(new ChildEventListener() {
+                @Override
+                public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+                    onSummaryChanged(snapshot);
+                }
+
+                @Override
+                public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+                    onSummaryChanged(snapshot);
+                }
+
+                @Override
+                public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                    summaries.remove(snapshot.getKey());
+                    if (contacts.contains(snapshot.getKey())) {
+                        index.setTime(snapshot.getKey(), null);
+                    } else {
+                        unfollow(snapshot.getKey());
+                    }
+                }
+
+                @Override
+                public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    Log.e(TAG, "Conversation summaries error: " + error.getMessage());
+                }
+            });
+
+            // Only the groups this user is in; their rooms are read when opened
+            groupsRef = database.getReference().child(Groups.NODE);
+            groupIndexRef = database.getReference().child(Groups.INDEX_NODE).child(myId);
+            groupIndexListener = groupIndexRef.addChildEventListener(new ChildEventListener() {
+                @Override
+                public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+                    followGroup(snapshot.getKey());
+                }
+
+                @Override
+                public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+                }
+
+                @Override
+                public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                    unfollowGroup(snapshot.getKey());
+                }
+
+                @Override
+                public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    Log.e(TAG, "Group index error: " + error.getMessage());
+                }
+            });
+
+            UserProfiles.seedContacts(database.getReference(), myId);
         } catch (Exception e) {
             Log.e(TAG, "Error initializing fragment", e);
         }
+        span.end();
 
         return binding != null ? binding.getRoot() : null;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (contactsRef != null && contactsListener != null) {
+            contactsRef.removeEventListener(contactsListener);
+        }
+        for (HashMap.Entry<String, ValueEventListener> entry : profileListeners.entrySet()) {
+            profilesRef.child(entry.getKey()).removeEventListener(entry.getValue());
+        }
+        profileListeners.clear();
+        contacts.clear();
+        if (conversationsRef != null && conversationsListener != null) {
+            conversationsRef.removeEventListener(conversationsListener);
+        }
+        if (groupIndexRef != null && groupIndexListener != null) {
+            groupIndexRef.removeEventListener(groupIndexListener);
+        }
+        for (HashMap.Entry<String, ValueEventListener> entry : groupListeners.entrySet()) {
+            groupsRef.child(entry.getKey()).child(Groups.INFO).removeEventListener(entry.getValue());
+        }
+        groupListeners.clear();
+        binding = null;
+    }
+
     /**
-     * Sort users by last message timestamp (most recent first)
+     * Start listing a user, once their profile arrives
      */
-    private void sortUsersByLastMessage() {
-        Collections.sort(list, new Comparator<Users>() {
+    private void follow(String userId) {
+        if (profileListeners.containsKey(userId)
+                || userId.equals(FirebaseAuth.getInstance().getUid())) { // for not including yourself into chat can be removed to message yourself
+            return;
+        }
+        ValueEventListener listener = profilesRef.child(userId).addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                onUserChanged(snapshot);
+            }
+
             @Override
-            public int compare(Users u1, Users u2) {
-                Long time1 = u1.getLastMessageTime() != null ? u1.getLastMessageTime() : 0L;
-                Long time2 = u2.getLastMessageTime() != null ? u2.getLastMessageTime() : 0L;
-                // Sort in descending order (most recent first)
-                return time2.compareTo(time1);
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Profile listener cancelled for " + userId + ": " + error.getMessage());
             }
         });
+        profileListeners.put(userId, listener);
+    }
+
+    private void unfollow(String userId) {
+        ValueEventListener listener = profileListeners.remove(userId);
+        if (listener != null) {
+            profilesRef.child(userId).removeEventListener(listener);
+        }
+        index.remove(userId);
+    }
+
+    /**
+     * Start listing a group, following its name and last message
+     */
+    private void followGroup(String groupId) {
+        if (groupListeners.containsKey(groupId)) {
+            return;
+        }
+        ValueEventListener listener = groupsRef.child(groupId).child(Groups.INFO)
+                .addValueEventListener(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        onGroupChanged(groupId, snapshot.getValue(GroupInfo.class));
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        Log.e(TAG, "Group listener cancelled for " + groupId + ": " + error.getMessage());
+                    }
+                });
+        groupListeners.put(groupId, listener);
+    }
+
+    private void unfollowGroup(String groupId) {
+        ValueEventListener listener = groupListeners.remove(groupId);
+        if (listener != null) {
+            groupsRef.child(groupId).child(Groups.INFO).removeEventListener(listener);
+        }
+        groups.remove(groupId);
+        index.remove(groupId);
+    }
+
+    private void onGroupChanged(String groupId, GroupInfo info) {
+        if (info == null) {
+            info = new GroupInfo();
+        }
+        groups.put(groupId, info);
+
+        // A group row is a Users entry keyed by the group id, so it sorts with the conversations
+        Users row = new Users();
+        row.setUserId(groupId);
+        row.setUserName(Groups.nameOf(groupId, info));
+        row.setLastMessageTime(info.getTimestamp());
+        index.put(row);
+    }
+
+    private void onUserChanged(DataSnapshot snapshot) {
+        try {
+            Users user = snapshot.getValue(Users.class);
+            if (user == null) {
+                // No profile yet; the row appears once the user publishes one
+                return;
+            }
+            user.setUserId(snapshot.getKey());
+            ConversationSummary summary = summaries.get(user.getUserId());
+            user.setLastMessageTime(summary != null ? summary.getTimestamp() : null);
+            index.put(user);
+            // The first row on screen is what a cold start is waiting for
+            StartupTrace.get().finish("Chat list populated");
+            // Have the key ready before the user opens the chat
+            keyDirectory.prefetch(user.getUserId());
+        } catch (Exception e) {
+            Log.e(TAG, "Error parsing user data", e);
+        }
+    }
+
+    private void onSummaryChanged(DataSnapshot snapshot) {
+        ConversationSummary summary = snapshot.getValue(ConversationSummary.class);
+        if (summary == null) {
+            return;
+        }
+        summaries.put(snapshot.getKey(), summary);
+
+        Users user = index.get(snapshot.getKey());
+        if (user == null) {
+            // Picked up when the user's profile arrives
+            follow(snapshot.getKey());
+            return;
+        }
+        if (summary.getTimestamp() != null && summary.getTimestamp().equals(user.getLastMessageTime())) {
+            // Only the unread count or preview changed
+            index.notifyChanged(user.getUserId());
+        } else {
+            index.setTime(user.getUserId(), summary.getTimestamp());
+        }
     }
 }
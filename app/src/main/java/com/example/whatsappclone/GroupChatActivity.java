@@ -9,7 +9,6 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
@@ -21,15 +20,20 @@ import com.example.whatsappclone.Models.MessageModel;
 import com.example.whatsappclone.databinding.ActivityChatdetailBinding;
 import com.example.whatsappclone.databinding.ActivityGroupChatBinding;
 import com.example.whatsappclone.utils.AESUtils;
-import com.google.android.gms.tasks.OnSuccessListener;
+import com.example.whatsappclone.utils.CryptoExecutor;
+import com.example.whatsappclone.utils.GroupKeyManager;
+import com.example.whatsappclone.utils.Groups;
+import com.example.whatsappclone.utils.MessageEncoding;
+import com.example.whatsappclone.utils.MessagePager;
+import com.example.whatsappclone.utils.MessageStore;
+import com.example.whatsappclone.utils.OutboundQueue;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.SecretKey;
 
@@ -39,7 +43,17 @@ public class GroupChatActivity extends AppCompatActivity {
     private static final String TAG = "GroupChatActivity";
     private static final String PREFS_NAME = "GroupChatPrefs";
     private static final String GROUP_AES_KEY = "group_aes_key";
-    private SecretKey groupAESKey;
+    private String groupId;
+    // Database path of the group's messages, also its local store key
+    private String groupRoom;
+    // Device-local key of messages sent before group keys were distributed
+    private SecretKey legacyGroupKey;
+    private GroupKeyManager groupKeys;
+    private GroupKeyManager.Listener groupKeyListener;
+    private String senderId;
+    private MessagePager pager;
+    private OutboundQueue outbox;
+    private OutboundQueue.Listener outboxListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,8 +64,8 @@ public class GroupChatActivity extends AppCompatActivity {
         EdgeToEdge.enable(this);
         setContentView(binding.getRoot());
 
-        // Initialize AES key for group chat
-        initializeGroupAESKey();
+        loadLegacyGroupKey();
+        groupKeys = GroupKeyManager.getInstance(this);
 
         binding.backArrow.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -62,50 +76,63 @@ public class GroupChatActivity extends AppCompatActivity {
         });
 
         FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final ArrayList<MessageModel> messageModels = new ArrayList<>();
 
-        final String senderId = FirebaseAuth.getInstance().getUid();
-        binding.userName.setText("Group Chat");
+        senderId = FirebaseAuth.getInstance().getUid();
+        // Opened from the chat list with a group, or from the menu with the global one
+        groupId = getIntent().getStringExtra("groupId");
+        if (groupId == null) {
+            groupId = Groups.GLOBAL_ID;
+        }
+        groupRoom = Groups.roomOf(groupId);
+        String groupName = getIntent().getStringExtra("groupName");
+        binding.userName.setText(groupName != null ? groupName : Groups.nameOf(groupId, null));
+
+        if (Groups.GLOBAL_ID.equals(groupId)) {
+            // Anyone may join the global group; members already in it share its key with them
+            Groups.joinGlobal();
+        }
+        if (Groups.isOpen(groupId)) {
+            groupKeys.startSharing(groupId);
+        }
 
-        final ChatAdapter adapter = new ChatAdapter(this, messageModels);
+        final ChatAdapter adapter = new ChatAdapter(this, groupRoom);
         binding.chatRecycleView.setAdapter(adapter);
 
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         binding.chatRecycleView.setLayoutManager(layoutManager);
 
-        database.getReference().child("Group Chat").addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                messageModels.clear();
-                for (DataSnapshot dataSnapshot : snapshot.getChildren()) {
-                    MessageModel model = dataSnapshot.getValue(MessageModel.class);
-                    if (model != null) {
-                        // Decrypt the message before adding to list
-                        try {
-                            String decryptedMessage = AESUtils.decrypt(model.getMessage(), groupAESKey);
-                            model.setMessage(decryptedMessage);
-                            messageModels.add(model);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to decrypt message: " + e.getMessage());
-                            // If decryption fails, it might be a plain text message (backward compatibility)
-                            // or the message is corrupted, skip it or handle accordingly
-                            if (isPlainText(model.getMessage())) {
-                                messageModels.add(model); // Add as plain text
-                                Log.w(TAG, "Message appears to be plain text, adding without decryption");
-                            } else {
-                                Log.e(TAG, "Skipping corrupted message");
-                            }
-                        }
-                    }
-                }
-                adapter.notifyDataSetChanged();
+        // Only this group's room is followed, and only while it is open. Stored messages show
+        // right away; only newer ones are fetched, older pages load as the user scrolls up
+        pager = new MessagePager(database.getReference().child(groupRoom), groupRoom,
+                MessageStore.getInstance(this), this::decryptMessage);
+        pager.attach(binding.chatRecycleView);
+        adapter.setOnMessageDeletedListener(model -> pager.remove(model.getMessageId()));
+
+        // Messages whose key was still being fetched are decoded again once it arrives
+        groupKeyListener = (keyGroupId, keyId) -> {
+            if (keyGroupId.equals(groupId)) {
+                pager.retryUndecoded();
             }
-
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                Log.e(TAG, "Database error: " + error.getMessage());
+        };
+        groupKeys.addListener(groupKeyListener);
+
+        // Messages still queued from earlier visits, and the state of everything sent from here
+        outbox = OutboundQueue.getInstance(this);
+        outboxListener = (room, messageId, state) -> {
+            if (room.equals(groupRoom)) {
+                adapter.setDeliveryState(messageId, state);
             }
-        });
+        };
+        outbox.addListener(outboxListener);
+        for (OutboundQueue.Entry entry : outbox.pending(groupRoom)) {
+            if (entry.hasBody()) {
+                pager.addLocal(entry.toMessage());
+            } else {
+                // Queued by an earlier process, which journaled only the encrypted update
+                pager.decodeLocal(entry.toStoredMessage());
+            }
+            adapter.setDeliveryState(entry.getMessageId(), outbox.getState(groupRoom, entry.getMessageId()));
+        }
 
         binding.send.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -117,25 +144,23 @@ public class GroupChatActivity extends AppCompatActivity {
                     return;
                 }
 
-                try {
-                    // Encrypt the message before sending
-                    String encryptedMessage = AESUtils.encrypt(message, groupAESKey);
-
-                    final MessageModel model = new MessageModel(senderId, encryptedMessage);
-                    model.setTimestamp(new Date().getTime());
+                binding.enterMessage.setText("");
 
-                    binding.enterMessage.setText("");
+                // Encrypt the message with the group's current key before sending, off the UI thread
+                groupKeys.currentKey(groupId, new CryptoExecutor.Callback<GroupKeyManager.GroupKey>() {
+                    @Override
+                    public void onResult(GroupKeyManager.GroupKey groupKey) {
+                        send(message, groupKey);
+                    }
 
-                    database.getReference().child("Group Chat").push().setValue(model).addOnSuccessListener(new OnSuccessListener<Void>() {
-                        @Override
-                        public void onSuccess(Void unused) {
-                            Log.d(TAG, "Encrypted message sent successfully");
-                        }
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to encrypt message: " + e.getMessage());
-                    Toast.makeText(GroupChatActivity.this, "Failed to send message", Toast.LENGTH_SHORT).show();
-                }
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "No group key to send with: " + e.getMessage());
+                        onSendFailed(message, e instanceof GroupKeyManager.KeyPendingException
+                                ? "Waiting for a member to share the group key, try again soon"
+                                : "Failed to send message");
+                    }
+                });
             }
         });
 
@@ -146,73 +171,148 @@ public class GroupChatActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pager != null) {
+            pager.close();
+        }
+        if (outbox != null) {
+            outbox.removeListener(outboxListener);
+        }
+        if (groupKeyListener != null) {
+            groupKeys.removeListener(groupKeyListener);
+        }
+        if (groupKeys != null && groupId != null) {
+            groupKeys.stopSharing(groupId);
+        }
+    }
+
     /**
-     * Initialize or retrieve the AES key for group chat encryption
+     * Decode a group message in place by its encoding marker, returns false for
+     * messages that cannot be shown; unmarked rows that fail to decode are shown as
+     * they are
+     *
+     * @throws GroupKeyManager.KeyPendingException while the message's key is being fetched
      */
-    private void initializeGroupAESKey() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String savedKey = prefs.getString(GROUP_AES_KEY, null);
-
-        if (savedKey != null) {
-            // Load existing key
-            try {
-                groupAESKey = AESUtils.stringToKey(savedKey);
-                Log.d(TAG, "Loaded existing AES key for group chat");
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to load existing AES key, generating new one", e);
-                generateAndSaveNewKey(prefs);
-            }
-        } else {
-            // Generate new key
-            generateAndSaveNewKey(prefs);
+    private boolean decryptMessage(MessageModel model) throws GroupKeyManager.KeyPendingException {
+        MessageEncoding encoding = MessageEncoding.of(model);
+        if (encoding == null) {
+            Log.w(TAG, "Skipping message with unknown encoding " + model.getEncoding());
+            return false;
+        }
+        switch (encoding) {
+            case PLAINTEXT:
+                // Sent before group messages were encrypted
+                return true;
+            case AES_CBC:
+            case AES_GCM:
+                SecretKey key = keyOf(model);
+                if (key == null) {
+                    // Encrypted with a key this user was never given, or old plaintext shaped like ciphertext
+                    return MessageEncoding.isGuessed(model);
+                }
+                try {
+                    model.setMessage(AESUtils.decrypt(model.getMessage(), key));
+                    return true;
+                } catch (Exception e) {
+                    if (MessageEncoding.isGuessed(model)) {
+                        return true;
+                    }
+                    Log.e(TAG, "Skipping message that fails to decrypt: " + e.getMessage());
+                    return false;
+                }
+            default:
+                Log.w(TAG, "Skipping " + encoding + " message in group chat");
+                return false;
         }
     }
 
     /**
-     * Generate a new AES key and save it to SharedPreferences
+     * @return the key the message was encrypted with, or null if this user cannot
+     * have it; runs on the decoder's background thread
      */
-    private void generateAndSaveNewKey(SharedPreferences prefs) {
-        try {
-            groupAESKey = AESUtils.generateKey();
-            String keyString = AESUtils.keyToString(groupAESKey);
+    private SecretKey keyOf(MessageModel model) throws GroupKeyManager.KeyPendingException {
+        if (model.getKeyId() == null) {
+            // Only this device ever had the key of its own old global group messages
+            boolean own = senderId != null && senderId.equals(model.getUid());
+            return own && Groups.GLOBAL_ID.equals(groupId) ? legacyGroupKey : null;
+        }
+        return groupKeys.keyFor(groupId, model.getKeyId());
+    }
 
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putString(GROUP_AES_KEY, keyString);
-            editor.apply();
+    private void send(String message, GroupKeyManager.GroupKey groupKey) {
+        CryptoExecutor.submit(() -> AESUtils.encrypt(message, groupKey.getKey()), new CryptoExecutor.Callback<String>() {
+            @Override
+            public void onResult(String encryptedMessage) {
+                DatabaseReference room = FirebaseDatabase.getInstance().getReference().child(groupRoom);
+                String messageId = room.push().getKey();
+                long timestamp = new Date().getTime();
+
+                Map<String, Object> fields = new HashMap<>();
+                fields.put("uid", senderId);
+                fields.put("message", encryptedMessage);
+                fields.put("timestamp", timestamp);
+                fields.put("encoding", MessageEncoding.AES_GCM.code());
+                fields.put("keyId", groupKey.getKeyId());
+                Map<String, Object> updates = new HashMap<>();
+                updates.put(groupRoom + "/" + messageId, fields);
+                Groups.putLastMessage(updates, groupId, senderId, encryptedMessage, groupKey.getKeyId(), timestamp);
+
+                // Journaled and retried until written; shown right away with its delivery state
+                OutboundQueue.Entry entry = new OutboundQueue.Entry(groupRoom, messageId, senderId,
+                        message, timestamp, updates);
+                outbox.enqueue(entry);
+                pager.addLocal(entry.toMessage());
+            }
 
-            Log.d(TAG, "Generated and saved new AES key for group chat");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to generate AES key", e);
-            Toast.makeText(this, "Failed to initialize encryption", Toast.LENGTH_LONG).show();
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to encrypt message: " + e.getMessage());
+                onSendFailed(message, "Failed to send message");
+            }
+        });
+    }
+
+    private void onSendFailed(String message, String reason) {
+        Toast.makeText(this, reason, Toast.LENGTH_SHORT).show();
+        // Give the user their text back so the message is not lost
+        if (binding.enterMessage.getText().length() == 0) {
+            binding.enterMessage.setText(message);
         }
     }
 
     /**
-     * Check if a string appears to be plain text (not encrypted)
-     * This is a simple heuristic - you might want to improve this
+     * Load the key this device used for group messages before keys were shared;
+     * no new messages are encrypted with it
      */
-    private boolean isPlainText(String text) {
-        if (text == null || text.isEmpty()) {
-            return false;
+    private void loadLegacyGroupKey() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String savedKey = prefs.getString(GROUP_AES_KEY, null);
+        if (savedKey == null) {
+            return;
+        }
+        try {
+            legacyGroupKey = AESUtils.stringToKey(savedKey);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load the legacy group key", e);
         }
-
-        // Check if it contains only printable characters and common punctuation
-        // This is a basic check - encrypted data usually contains non-printable characters
-        return text.matches("^[\\p{Print}\\p{Space}]*$") &&
-                !text.contains("=") && // Base64 usually contains =
-                text.length() < 200; // Encrypted messages are usually longer
     }
 
     /**
-     * Method to reset the group encryption key (call this if needed)
+     * Distribute a new group key to the current members, e.g. after a device was lost
      */
     public void resetGroupEncryptionKey() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(GROUP_AES_KEY);
-        editor.apply();
+        groupKeys.rotate(groupId, new CryptoExecutor.Callback<GroupKeyManager.GroupKey>() {
+            @Override
+            public void onResult(GroupKeyManager.GroupKey result) {
+                Toast.makeText(GroupChatActivity.this, "Group encryption key reset", Toast.LENGTH_SHORT).show();
+            }
 
-        generateAndSaveNewKey(prefs);
-        Toast.makeText(this, "Group encryption key reset", Toast.LENGTH_SHORT).show();
+            @Override
+            public void onError(Exception e) {
+                Toast.makeText(GroupChatActivity.this, "Failed to reset group key", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
-}
\ No newline at end of file
+}
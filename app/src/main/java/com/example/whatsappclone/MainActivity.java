@@ -1,11 +1,14 @@
 package com.example.whatsappclone;
 
+import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.InputType;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
@@ -15,14 +18,31 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.viewpager2.widget.ViewPager2;
 
 import com.example.whatsappclone.Adapter.Freagmentadapter;
 import com.example.whatsappclone.databinding.ActivityMainBinding;
-import com.example.whatsappclone.utils.RSAKeyManager;
+import com.example.whatsappclone.utils.CryptoExecutor;
+import com.example.whatsappclone.utils.Groups;
+import com.example.whatsappclone.utils.HybridEncryption;
+import com.example.whatsappclone.utils.KeyProvisioner;
+import com.example.whatsappclone.utils.MessageStore;
+import com.example.whatsappclone.utils.OutboundQueue;
+import com.example.whatsappclone.utils.StartupTrace;
+import com.example.whatsappclone.utils.UserProfiles;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.material.tabs.TabLayoutMediator;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -33,6 +53,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.Span span = StartupTrace.get().begin("MainActivity.onCreate");
         EdgeToEdge.enable(this);
 
         // Inflate the layout using binding
@@ -41,57 +62,56 @@ public class MainActivity extends AppCompatActivity {
 
         mAuth = FirebaseAuth.getInstance();
 
-        // Ensure user has encryption keys
-        ensureEncryptionKeys();
-
         // Set up the toolbar
         setSupportActionBar(binding.toolbar); // Directly set the toolbar using binding
-        binding.viewpager.setAdapter(new Freagmentadapter(getSupportFragmentManager()));
-        binding.tablelayout.setupWithViewPager(binding.viewpager);
+        // Pages are created when first shown; Status and Calls cost nothing until swiped to
+        binding.viewpager.setAdapter(new Freagmentadapter(this));
+        binding.viewpager.setOffscreenPageLimit(ViewPager2.OFFSCREEN_PAGE_LIMIT_DEFAULT);
+        new TabLayoutMediator(binding.tablelayout, binding.viewpager,
+                (tab, position) -> tab.setText(Freagmentadapter.getPageTitle(position))).attach();
         // Handle insets for system bars
         ViewCompat.setOnApplyWindowInsetsListener(binding.main, (v, insets) -> {
             Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
             v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
             return insets;
         });
+        span.end();
+
+        // Runs after the first frame is drawn; key setup does not hold it up
+        binding.getRoot().post(() -> {
+            StartupTrace.get().mark("MainActivity first frame");
+            // Ensure user has encryption keys
+            ensureEncryptionKeys();
+            UserProfiles.backfill(FirebaseDatabase.getInstance().getReference(), mAuth.getUid(),
+                    mAuth.getCurrentUser() != null ? mAuth.getCurrentUser().getEmail() : null);
+        });
     }
 
     private void ensureEncryptionKeys() {
-        // Check if user has RSA keys
-        if (!RSAKeyManager.hasKeys(this)) {
-            try {
-                Log.d(TAG, "No encryption keys found, generating new keys...");
-                
-                // Generate new RSA key pair
-                KeyPair keyPair = RSAKeyManager.generateKeyPair();
-                
-                // Save private key locally
-                RSAKeyManager.saveKeyPair(this, keyPair);
-                
-                // Save public key to Firebase
-                String publicKeyStr = RSAKeyManager.publicKeyToString(keyPair.getPublic());
-                String userId = mAuth.getCurrentUser().getUid();
-                
-                FirebaseDatabase.getInstance()
-                    .getReference()
-                    .child("PublicKeys")
-                    .child(userId)
-                    .setValue(publicKeyStr)
-                    .addOnSuccessListener(unused -> {
-                        Log.d(TAG, "Encryption keys generated and saved successfully");
-                        Toast.makeText(MainActivity.this, "Encryption setup complete", Toast.LENGTH_SHORT).show();
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Failed to save public key to Firebase", e);
-                    });
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to generate encryption keys", e);
-                Toast.makeText(this, "Failed to setup encryption. Please restart app.", Toast.LENGTH_LONG).show();
+        // Loads or generates the keys in the background; the first launch is not blocked
+        KeyProvisioner.getInstance(this).ensureKeys(mAuth.getUid(), new CryptoExecutor.Callback<KeyPair>() {
+            @Override
+            public void onResult(KeyPair keyPair) {
+                StartupTrace.get().mark("Encryption keys ready");
+                Log.d(TAG, "Encryption keys ready");
             }
-        } else {
-            Log.d(TAG, "Encryption keys already exist");
-        }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to set up encryption keys", e);
+                Toast.makeText(MainActivity.this, "Failed to setup encryption. Please restart app.", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * adb shell dumpsys activity com.example.whatsappclone/.MainActivity prints the startup timeline
+     */
+    @Override
+    public void dump(@NonNull String prefix, FileDescriptor fd, @NonNull PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println(StartupTrace.get().dump().replace("\n", "\n" + prefix));
     }
 
     @Override
@@ -113,9 +133,33 @@ public class MainActivity extends AppCompatActivity {
             Intent intent1=new Intent(MainActivity.this,GroupChatActivity.class);
             startActivity(intent1);
 
+            return true;
+        } else if (item.getItemId() == R.id.newGroup) {
+            showNewGroupDialog();
+            return true;
+        } else if (item.getItemId() == R.id.addContact) {
+            showAddContactDialog();
             return true;
         } else if (item.getItemId() == R.id.log_out) {
             mAuth.signOut();
+            HybridEncryption.clearSessionKeyCache();
+            // Unsent messages of this account must not be sent, or kept, once someone else signs in
+            OutboundQueue.getInstance(this).clear();
+            MessageStore store = MessageStore.getInstance(this);
+            CryptoExecutor.submit(() -> {
+                store.clear();
+                return true;
+            }, new CryptoExecutor.Callback<Boolean>() {
+                @Override
+                public void onResult(Boolean cleared) {
+                    Log.d(TAG, "Local messages cleared on logout");
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to clear local messages", e);
+                }
+            });
             Intent intent=new Intent(MainActivity.this,SignInActivity.class);
             startActivity(intent);
             return true;
@@ -124,4 +168,120 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Ask for a mail address and add its account to the user's contacts
+     */
+    private void showAddContactDialog() {
+        EditText mailInput = new EditText(this);
+        mailInput.setHint("Email");
+        mailInput.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS);
+        new AlertDialog.Builder(this)
+                .setTitle("Add contact")
+                .setView(mailInput)
+                .setPositiveButton("Add", (dialog, which) -> {
+                    String mail = mailInput.getText().toString().trim();
+                    if (mail.isEmpty()) {
+                        Toast.makeText(this, "Please enter an email", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    UserProfiles.addContactByMail(FirebaseDatabase.getInstance().getReference(), mAuth.getUid(), mail,
+                            new CryptoExecutor.Callback<String>() {
+                                @Override
+                                public void onResult(String contactId) {
+                                    Toast.makeText(MainActivity.this,
+                                            contactId != null ? "Contact added" : "No user with that email",
+                                            Toast.LENGTH_SHORT).show();
+                                }
+
+                                @Override
+                                public void onError(Exception e) {
+                                    Log.e(TAG, "Failed to add contact", e);
+                                    Toast.makeText(MainActivity.this, "Failed to add contact", Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Ask for a name, then for members among the user's contacts, and create the group
+     */
+    private void showNewGroupDialog() {
+        EditText nameInput = new EditText(this);
+        nameInput.setHint("Group name");
+        new AlertDialog.Builder(this)
+                .setTitle("New group")
+                .setView(nameInput)
+                .setPositiveButton("Next", (dialog, which) -> {
+                    String name = nameInput.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        Toast.makeText(this, "Please enter a group name", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    pickGroupMembers(name);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void pickGroupMembers(String name) {
+        DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+        root.child(UserProfiles.CONTACTS_NODE).child(mAuth.getUid()).get().addOnCompleteListener(contactsTask -> {
+            if (!contactsTask.isSuccessful()) {
+                Log.e(TAG, "Failed to load contacts", contactsTask.getException());
+                Toast.makeText(this, "Failed to load contacts", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // Names come from the list-sized profiles, fetched together
+            List<String> contactIds = new ArrayList<>();
+            List<Task<DataSnapshot>> profiles = new ArrayList<>();
+            for (DataSnapshot contact : contactsTask.getResult().getChildren()) {
+                contactIds.add(contact.getKey());
+                profiles.add(root.child(UserProfiles.NODE).child(contact.getKey()).get());
+            }
+            Tasks.whenAllComplete(profiles).addOnCompleteListener(done -> {
+                String[] names = new String[contactIds.size()];
+                for (int i = 0; i < names.length; i++) {
+                    Task<DataSnapshot> profile = profiles.get(i);
+                    String userName = profile.isSuccessful()
+                            ? profile.getResult().child("userName").getValue(String.class) : null;
+                    names[i] = userName != null ? userName : contactIds.get(i);
+                }
+                boolean[] checked = new boolean[names.length];
+                new AlertDialog.Builder(this)
+                        .setTitle(name)
+                        .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                        .setPositiveButton("Create", (dialog, which) -> {
+                            List<String> memberIds = new ArrayList<>();
+                            for (int i = 0; i < checked.length; i++) {
+                                if (checked[i]) {
+                                    memberIds.add(contactIds.get(i));
+                                }
+                            }
+                            createGroup(name, memberIds);
+                        })
+                        .setNegativeButton("Cancel", null)
+                        .show();
+            });
+        });
+    }
+
+    private void createGroup(String name, List<String> memberIds) {
+        Groups.create(this, name, memberIds, new CryptoExecutor.Callback<String>() {
+            @Override
+            public void onResult(String groupId) {
+                Intent intent = new Intent(MainActivity.this, GroupChatActivity.class);
+                intent.putExtra("groupId", groupId);
+                intent.putExtra("groupName", name);
+                startActivity(intent);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to create group", e);
+                Toast.makeText(MainActivity.this, "Failed to create group", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 }
@@ -3,6 +3,12 @@ package com.example.whatsappclone.Models;
 public class MessageModel {
     String uid,message,messageId;
     String encryptedSessionKey;
+    // Set when the body is stored once under envelopes/ instead of in the message
+    String envelopeId;
+    // MessageEncoding code of the body; absent on rows written before it existed
+    Integer encoding;
+    // Group key the body is encrypted with, see GroupKeyManager
+    String keyId;
     Long timestamp;
 
 
@@ -65,4 +71,28 @@ public class MessageModel {
     public void setEncryptedSessionKey(String encryptedSessionKey) {
         this.encryptedSessionKey = encryptedSessionKey;
     }
+
+    public String getEnvelopeId() {
+        return envelopeId;
+    }
+
+    public void setEnvelopeId(String envelopeId) {
+        this.envelopeId = envelopeId;
+    }
+
+    public Integer getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(Integer encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public void setKeyId(String keyId) {
+        this.keyId = keyId;
+    }
 }
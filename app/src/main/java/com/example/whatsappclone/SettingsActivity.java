@@ -13,6 +13,7 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.example.whatsappclone.databinding.ActivitySettingsBinding;
+import com.example.whatsappclone.utils.UserProfiles;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.database.FirebaseDatabase;
 
@@ -46,12 +47,14 @@ public class SettingsActivity extends AppCompatActivity {
                 if (!binding.txtAbout.getText().toString().equals("") && !binding.txtUsername.getText().toString().equals("")) {
                     String status = binding.txtAbout.getText().toString();
                     String username = binding.txtUsername.getText().toString();
+                    String uid = FirebaseAuth.getInstance().getUid();
                     HashMap<String, Object> obj = new HashMap<>();
-                    obj.put("userName", username);
-                    obj.put("status", status);
+                    obj.put("Users/" + uid + "/userName", username);
+                    obj.put("Users/" + uid + "/status", status);
+                    // Contacts' chat lists read the name from the profile
+                    UserProfiles.putProfile(obj, uid, username, null);
                     FirebaseDatabase database = FirebaseDatabase.getInstance();
-                    database.getReference().child("Users").child(FirebaseAuth.getInstance().getUid())
-                            .updateChildren(obj);
+                    database.getReference().updateChildren(obj);
 
                     Toast.makeText(SettingsActivity.this, "Profile Updated", Toast.LENGTH_SHORT).show();
                 } else {
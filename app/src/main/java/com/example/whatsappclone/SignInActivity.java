@@ -11,7 +11,9 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.whatsappclone.databinding.ActivitySignInBinding;
-import com.example.whatsappclone.utils.RSAKeyManager;
+import com.example.whatsappclone.utils.KeyProvisioner;
+import com.example.whatsappclone.utils.StartupTrace;
+import com.example.whatsappclone.utils.UserProfiles;
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
@@ -19,7 +21,6 @@ import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
-import com.google.firebase.FirebaseApp;
 import com.google.firebase.auth.AuthCredential;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
@@ -30,7 +31,6 @@ import com.google.firebase.database.FirebaseDatabase;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.security.KeyPair;
 
 import static android.content.ContentValues.TAG;
 
@@ -44,24 +44,21 @@ public class SignInActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        binding = ActivitySignInBinding.inflate(getLayoutInflater());
-        setContentView(binding.getRoot());
-        FirebaseApp.initializeApp(this);
+        StartupTrace.Span span = StartupTrace.get().begin("SignInActivity.onCreate");
 
-        // Initialize Firebase Auth
+        // Firebase is initialized by its content provider before any activity starts
         mAuth = FirebaseAuth.getInstance();
 
-        // Progress Dialog Setup
-        progressDialog = new ProgressDialog(SignInActivity.this);
-        progressDialog.setTitle("Login");
-        progressDialog.setMessage("Please wait, validation in progress");
+        // Already signed in: go straight to the chat list without building this screen
+        if (mAuth.getCurrentUser() != null) {
+            startActivity(new Intent(SignInActivity.this, MainActivity.class));
+            finish();
+            span.end();
+            return;
+        }
 
-        // Configure Google Sign-In
-        GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-                .requestIdToken(getString(R.string.client_id)) // Replace with your client_id in strings.xml
-                .requestEmail()
-                .build();
-        mGoogleSignInClient = GoogleSignIn.getClient(this, gso);
+        binding = ActivitySignInBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
 
         // Email/Password Sign-In
         binding.btnSignIn.setOnClickListener(v -> {
@@ -73,39 +70,20 @@ public class SignInActivity extends AppCompatActivity {
                 return;
             }
 
-            progressDialog.show();
+            getProgressDialog().show();
 
             mAuth.signInWithEmailAndPassword(email, password)
                     .addOnCompleteListener(task -> {
-                        progressDialog.dismiss();
                         if (task.isSuccessful()) {
-                            try {
-                                // Check if user has RSA keys (for existing users who signed up before encryption)
-                                if (!RSAKeyManager.hasKeys(SignInActivity.this)) {
-                                    // Generate keys for existing users
-                                    KeyPair keyPair = RSAKeyManager.generateKeyPair();
-                                    RSAKeyManager.saveKeyPair(SignInActivity.this, keyPair);
-                                    
-                                    String publicKeyStr = RSAKeyManager.publicKeyToString(keyPair.getPublic());
-                                    String userId = task.getResult().getUser().getUid();
-                                    FirebaseDatabase.getInstance().getReference().child("PublicKeys").child(userId).setValue(publicKeyStr);
-                                    
-                                    Log.d("SignInActivity", "Generated RSA keys for existing user");
-                                }
-                                
-                                Toast.makeText(SignInActivity.this, "Login Successful", Toast.LENGTH_SHORT).show();
-                                startActivity(new Intent(SignInActivity.this, MainActivity.class));
-                                finish();
-                                
-                            } catch (Exception e) {
-                                Log.e("SignInActivity", "Failed to setup encryption keys", e);
-                                Toast.makeText(SignInActivity.this, "Login successful but encryption setup failed", Toast.LENGTH_SHORT).show();
-                                
-                                // Still allow login
-                                startActivity(new Intent(SignInActivity.this, MainActivity.class));
-                                finish();
-                            }
+                            // Keys are loaded, or generated for users who signed up before
+                            // encryption, in the background; MainActivity waits for them
+                            KeyProvisioner.getInstance(SignInActivity.this).ensureKeys(task.getResult().getUser().getUid(), null);
+                            getProgressDialog().dismiss();
+                            Toast.makeText(SignInActivity.this, "Login Successful", Toast.LENGTH_SHORT).show();
+                            startActivity(new Intent(SignInActivity.this, MainActivity.class));
+                            finish();
                         } else {
+                            getProgressDialog().dismiss();
                             Toast.makeText(SignInActivity.this, "Login Failed: " + task.getException().getMessage(), Toast.LENGTH_SHORT).show();
                         }
                     });
@@ -118,15 +96,30 @@ public class SignInActivity extends AppCompatActivity {
 
         // Google Sign-In
         binding.googlebutton.setOnClickListener(v -> signInWithGoogle());
+        span.end();
+    }
 
-        // Automatically redirect if user is already logged in
-        if (mAuth.getCurrentUser() != null) {
-            startActivity(new Intent(SignInActivity.this, MainActivity.class));
-            finish();
+    /**
+     * Created on first use; most launches never show it
+     */
+    private ProgressDialog getProgressDialog() {
+        if (progressDialog == null) {
+            progressDialog = new ProgressDialog(SignInActivity.this);
+            progressDialog.setTitle("Login");
+            progressDialog.setMessage("Please wait, validation in progress");
         }
+        return progressDialog;
     }
 
     private void signInWithGoogle() {
+        // Configure Google Sign-In only once the user asks for it
+        if (mGoogleSignInClient == null) {
+            GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+                    .requestIdToken(getString(R.string.client_id)) // Replace with your client_id in strings.xml
+                    .requestEmail()
+                    .build();
+            mGoogleSignInClient = GoogleSignIn.getClient(this, gso);
+        }
         Intent signInIntent = mGoogleSignInClient.getSignInIntent();
         startActivityForResult(signInIntent, REQ_SIGN_IN);
     }
@@ -167,7 +160,7 @@ public class SignInActivity extends AppCompatActivity {
 
     private void saveUserToDatabase(FirebaseUser user) {
         // Get a reference to the Realtime Database
-        DatabaseReference databaseReference = FirebaseDatabase.getInstance().getReference("Users");
+        DatabaseReference databaseReference = FirebaseDatabase.getInstance().getReference();
 
         // Prepare user data to match your database structure
         Map<String, Object> userData = new HashMap<>();
@@ -176,8 +169,12 @@ public class SignInActivity extends AppCompatActivity {
         userData.put("status", "Hey there! I am using this app."); // Default status
         userData.put("userName", user.getDisplayName()); // Use display name as userName
 
-        // Save the data under the user's unique UID
-        databaseReference.child(user.getUid()).setValue(userData)
+        // Save the data under the user's unique UID, with the profile shown in contacts' chat lists
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("Users/" + user.getUid(), userData);
+        UserProfiles.putProfile(updates, user.getUid(), user.getDisplayName(), null);
+        UserProfiles.putMail(updates, user.getUid(), user.getEmail());
+        databaseReference.updateChildren(updates)
                 .addOnSuccessListener(aVoid -> Log.d(TAG, "User added to database"))
                 .addOnFailureListener(e -> Log.w(TAG, "Error adding user to database", e));
     }
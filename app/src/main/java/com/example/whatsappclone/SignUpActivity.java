@@ -2,7 +2,6 @@ package com.example.whatsappclone;
 
 import android.app.ProgressDialog;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
@@ -15,7 +14,8 @@ import androidx.core.view.WindowInsetsCompat;
 
 import com.example.whatsappclone.Models.Users;
 import com.example.whatsappclone.databinding.ActivitySignUpBinding;
-import com.example.whatsappclone.utils.RSAKeyManager;
+import com.example.whatsappclone.utils.KeyProvisioner;
+import com.example.whatsappclone.utils.UserProfiles;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.AuthResult;
@@ -23,7 +23,8 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.database.FirebaseDatabase;
 import android.content.Intent;
 
-import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
 
 public class SignUpActivity extends AppCompatActivity {
     ActivitySignUpBinding binding;
@@ -44,6 +45,9 @@ public class SignUpActivity extends AppCompatActivity {
         progressDialog.setTitle("Creating Account");
         progressDialog.setMessage("We're creating your account.");
 
+        // Generate the key pair while the user fills in the form
+        KeyProvisioner.getInstance(this).prepare();
+
         binding.signupbutton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -63,41 +67,32 @@ public class SignUpActivity extends AppCompatActivity {
                 mAuth.createUserWithEmailAndPassword(email, password).addOnCompleteListener(new OnCompleteListener<AuthResult>() {
                     @Override
                     public void onComplete(@NonNull Task<AuthResult> task) {
-                        progressDialog.dismiss(); // Dismiss the dialog
-
                         if(task.isSuccessful()){
-                            try {
-                                // Generate RSA key pair for the new user
-                                KeyPair keyPair = RSAKeyManager.generateKeyPair();
-                                
-                                // Save private key locally on device
-                                RSAKeyManager.saveKeyPair(SignUpActivity.this, keyPair);
-                                
-                                // Get public key as string for Firebase
-                                String publicKeyStr = RSAKeyManager.publicKeyToString(keyPair.getPublic());
-                                
-                                // Create user object
-                                Users users = new Users(username, email, password);
-                                String id = task.getResult().getUser().getUid();
-                                
-                                // Save user data to Firebase
-                                database.getReference().child("Users").child(id).setValue(users);
-                                
-                                // Save public key to Firebase
-                                database.getReference().child("PublicKeys").child(id).setValue(publicKeyStr);
-                                
-                                Toast.makeText(SignUpActivity.this, "Sign Up Successful", Toast.LENGTH_SHORT).show();
-                                
-                                // Redirect to MainActivity after successful signup
-                                Intent intent = new Intent(SignUpActivity.this, MainActivity.class);
-                                startActivity(intent);
-                                finish();
-                                
-                            } catch (Exception e) {
-                                Log.e("SignUpActivity", "Failed to generate encryption keys", e);
-                                Toast.makeText(SignUpActivity.this, "Failed to setup encryption: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                            }
+                            String id = task.getResult().getUser().getUid();
+
+                            // Keys were started when the form opened; they are published
+                            // under the new id as soon as they are ready
+                            KeyProvisioner.getInstance(SignUpActivity.this).ensureKeys(id, null);
+                            progressDialog.dismiss(); // Dismiss the dialog
+
+                            // Create user object
+                            Users users = new Users(username, email, password);
+
+                            // Save user data and the profile shown in contacts' chat lists together
+                            Map<String, Object> updates = new HashMap<>();
+                            updates.put("Users/" + id, users);
+                            UserProfiles.putProfile(updates, id, username, null);
+                            UserProfiles.putMail(updates, id, email);
+                            database.getReference().updateChildren(updates);
+
+                            Toast.makeText(SignUpActivity.this, "Sign Up Successful", Toast.LENGTH_SHORT).show();
+
+                            // Redirect to MainActivity after successful signup
+                            Intent intent = new Intent(SignUpActivity.this, MainActivity.class);
+                            startActivity(intent);
+                            finish();
                         } else {
+                            progressDialog.dismiss(); // Dismiss the dialog
                             Toast.makeText(SignUpActivity.this, task.getException().toString(), Toast.LENGTH_SHORT).show();
                         }
                     }
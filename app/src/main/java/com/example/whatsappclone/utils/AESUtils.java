@@ -4,26 +4,44 @@ import android.util.Base64;
 import android.util.Log;
 
 import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
 import java.util.Arrays;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * AES encryption of message bodies
+ *
+ * Ciphertext formats:
+ * - compact (current): WireCodec frame holding 12-byte nonce || AES-GCM ciphertext || 16-byte tag
+ * - v2: "v2:" + Base64 of the same bytes
+ * - legacy: Base64(16-byte IV || AES-CBC/PKCS5 ciphertext), no header
+ *
+ * Base64 never contains ':', so neither header can be confused with a legacy
+ * payload and old history keeps decrypting.
+ */
 public class AESUtils {
     private static final String TAG = "AESUtils";
     private static final String AES = "AES";
     private static final String AES_MODE = "AES/CBC/PKCS5Padding";
+    private static final String GCM_MODE = "AES/GCM/NoPadding";
     private static final int IV_SIZE = 16; // 128 bits for CBC mode
+    private static final int GCM_NONCE_SIZE = 12; // 96-bit nonce recommended for GCM
+    private static final int GCM_TAG_BITS = 128;
     private static final int KEY_SIZE = 256; // 256-bit key for better security
 
+    /** Header of AES-GCM payloads */
+    public static final String GCM_PREFIX = "v2:";
+
     public static SecretKey generateKey() throws Exception {
         try {
-            KeyGenerator keyGen = KeyGenerator.getInstance(AES);
-            keyGen.init(KEY_SIZE);
+            KeyGenerator keyGen = CryptoContext.keyGenerator(AES);
+            keyGen.init(KEY_SIZE, CryptoContext.secureRandom());
             SecretKey key = keyGen.generateKey();
             Log.d(TAG, "AES key generated successfully");
             return key;
@@ -54,6 +72,9 @@ public class AESUtils {
         }
     }
 
+    /**
+     * Encrypt with AES-GCM in the compact format; the tag detects any modification
+     */
     public static String encrypt(String plainText, SecretKey secretKey) throws Exception {
         if (plainText == null) {
             throw new IllegalArgumentException("Plain text cannot be null");
@@ -63,10 +84,42 @@ public class AESUtils {
         }
 
         try {
-            Cipher cipher = Cipher.getInstance(AES_MODE);
+            Cipher cipher = CryptoContext.cipher(GCM_MODE);
+            byte[] nonce = new byte[GCM_NONCE_SIZE];
+            CryptoContext.secureRandom().nextBytes(nonce);
+            byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+
+            // Ciphertext and tag are written straight after the nonce
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+            byte[] combined = new byte[GCM_NONCE_SIZE + cipher.getOutputSize(plain.length)];
+            System.arraycopy(nonce, 0, combined, 0, GCM_NONCE_SIZE);
+            cipher.doFinal(plain, 0, plain.length, combined, GCM_NONCE_SIZE);
+
+            String result = WireCodec.encode(combined);
+            Log.d(TAG, "Text encrypted successfully");
+            return result;
+
+        } catch (Exception e) {
+            Log.e(TAG, "Encryption failed", e);
+            throw new Exception("Encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encrypt in the legacy unauthenticated CBC format, for peers that cannot read v2 yet
+     */
+    public static String encryptCbc(String plainText, SecretKey secretKey) throws Exception {
+        if (plainText == null) {
+            throw new IllegalArgumentException("Plain text cannot be null");
+        }
+        if (secretKey == null) {
+            throw new IllegalArgumentException("Secret key cannot be null");
+        }
+
+        try {
+            Cipher cipher = CryptoContext.cipher(AES_MODE);
             byte[] iv = new byte[IV_SIZE];
-            SecureRandom random = new SecureRandom();
-            random.nextBytes(iv);
+            CryptoContext.secureRandom().nextBytes(iv);
             IvParameterSpec ivSpec = new IvParameterSpec(iv);
 
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivSpec);
@@ -86,6 +139,9 @@ public class AESUtils {
         }
     }
 
+    /**
+     * Decrypt either format, chosen by the header
+     */
     public static String decrypt(String cipherText, SecretKey secretKey) throws Exception {
         if (cipherText == null || cipherText.trim().isEmpty()) {
             throw new IllegalArgumentException("Cipher text cannot be null or empty");
@@ -94,9 +150,46 @@ public class AESUtils {
             throw new IllegalArgumentException("Secret key cannot be null");
         }
 
+        String trimmed = cipherText.trim();
+        if (WireCodec.isCompact(trimmed)) {
+            return decryptGcm(trimmed, null, secretKey);
+        }
+        if (trimmed.startsWith(GCM_PREFIX)) {
+            return decryptGcm(null, trimmed.substring(GCM_PREFIX.length()), secretKey);
+        }
+        return decryptCbc(trimmed, secretKey);
+    }
+
+    /**
+     * @param compact a compact value, or null if base64 holds a v2 payload
+     */
+    private static String decryptGcm(String compact, String base64, SecretKey secretKey) throws Exception {
+        try {
+            byte[] combined = compact != null
+                    ? WireCodec.decodeSingle(compact)
+                    : Base64.decode(base64, Base64.NO_WRAP);
+            if (combined.length < GCM_NONCE_SIZE + GCM_TAG_BITS / 8) {
+                throw new Exception("Invalid ciphertext: too short");
+            }
+
+            Cipher cipher = CryptoContext.cipher(GCM_MODE);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, combined, 0, GCM_NONCE_SIZE));
+            byte[] decrypted = cipher.doFinal(combined, GCM_NONCE_SIZE, combined.length - GCM_NONCE_SIZE);
+            return new String(decrypted, StandardCharsets.UTF_8);
+
+        } catch (AEADBadTagException e) {
+            Log.e(TAG, "Message failed authentication, it was corrupted or tampered with");
+            throw new Exception("Decryption failed: message authentication failed", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Decryption failed", e);
+            throw new Exception("Decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static String decryptCbc(String cipherText, SecretKey secretKey) throws Exception {
         try {
             Log.d(TAG, "Starting decryption for: " + cipherText);
-            byte[] combined = Base64.decode(cipherText.trim(), Base64.NO_WRAP);
+            byte[] combined = Base64.decode(cipherText, Base64.NO_WRAP);
             Log.d(TAG, "Decoded combined length: " + combined.length);
 
             if (combined.length < IV_SIZE + 1) {
@@ -107,7 +200,7 @@ public class AESUtils {
             byte[] encrypted = Arrays.copyOfRange(combined, IV_SIZE, combined.length);
             Log.d(TAG, "IV length: " + iv.length + ", Encrypted data length: " + encrypted.length);
 
-            Cipher cipher = Cipher.getInstance(AES_MODE);
+            Cipher cipher = CryptoContext.cipher(AES_MODE);
             IvParameterSpec ivSpec = new IvParameterSpec(iv);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
 
@@ -129,7 +222,15 @@ public class AESUtils {
         }
 
         try {
-            byte[] data = Base64.decode(encryptedText.trim(), Base64.NO_WRAP);
+            String trimmed = encryptedText.trim();
+            if (WireCodec.isCompact(trimmed)) {
+                return WireCodec.decodeSingle(trimmed).length >= GCM_NONCE_SIZE + GCM_TAG_BITS / 8;
+            }
+            if (trimmed.startsWith(GCM_PREFIX)) {
+                byte[] data = Base64.decode(trimmed.substring(GCM_PREFIX.length()), Base64.NO_WRAP);
+                return data.length >= GCM_NONCE_SIZE + GCM_TAG_BITS / 8;
+            }
+            byte[] data = Base64.decode(trimmed, Base64.NO_WRAP);
             return data.length >= IV_SIZE + 16;
         } catch (Exception e) {
             return false;
@@ -0,0 +1,127 @@
+package com.example.whatsappclone.utils;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * Keeps the private key inside AndroidKeyStore, hardware-backed where the device supports it
+ *
+ * The private key never leaves the keystore and needs no parsing to load; only
+ * an opaque handle is returned. Keys cannot be imported, so save() is unsupported.
+ */
+public class AndroidKeyStoreStorage implements KeyStorage {
+    private static final String PROVIDER = "AndroidKeyStore";
+    private static final String ALIAS = "chat_rsa_key";
+
+    private final KeyStore keyStore;
+
+    private AndroidKeyStoreStorage(KeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    /**
+     * @return the keystore backend, or null where AndroidKeyStore does not exist (e.g. on a JVM)
+     */
+    public static AndroidKeyStoreStorage open() {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(PROVIDER);
+            keyStore.load(null);
+            return new AndroidKeyStoreStorage(keyStore);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generate the key pair inside the keystore. The new key must decrypt a block
+     * wrapped the way peers wrap session keys, otherwise it is deleted and this fails.
+     */
+    @Override
+    public KeyPair generate() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA, PROVIDER);
+        keyGen.initialize(new KeyGenParameterSpec.Builder(ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setKeySize(RSAKeyManager.KEY_SIZE)
+                .setDigests(KeyProperties.DIGEST_SHA256, KeyProperties.DIGEST_SHA1)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_RSA_OAEP)
+                .build());
+        KeyPair generated = keyGen.generateKeyPair();
+        KeyPair keyPair = new KeyPair(toSoftware(generated.getPublic()), generated.getPrivate());
+
+        try {
+            selfTest(keyPair);
+        } catch (GeneralSecurityException e) {
+            clear();
+            throw new GeneralSecurityException("Keystore key cannot unwrap session keys", e);
+        }
+        return keyPair;
+    }
+
+    @Override
+    public void save(KeyPair keyPair) {
+        throw new UnsupportedOperationException("AndroidKeyStore cannot import key pairs");
+    }
+
+    @Override
+    public PrivateKey loadPrivateKey() throws GeneralSecurityException {
+        return (PrivateKey) keyStore.getKey(ALIAS, null);
+    }
+
+    @Override
+    public PublicKey loadPublicKey() throws GeneralSecurityException {
+        Certificate certificate = keyStore.getCertificate(ALIAS);
+        return certificate != null ? toSoftware(certificate.getPublicKey()) : null;
+    }
+
+    @Override
+    public boolean hasKeys() {
+        try {
+            return keyStore.containsAlias(ALIAS);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            keyStore.deleteEntry(ALIAS);
+        } catch (GeneralSecurityException e) {
+            // Nothing stored
+        }
+    }
+
+    /**
+     * Keystore public keys are bound to the keystore provider; a parsed copy works with any Cipher
+     */
+    private static PublicKey toSoftware(PublicKey publicKey) throws GeneralSecurityException {
+        return CryptoContext.keyFactory("RSA").generatePublic(new X509EncodedKeySpec(publicKey.getEncoded()));
+    }
+
+    private static void selfTest(KeyPair keyPair) throws GeneralSecurityException {
+        byte[] block = new byte[32];
+        CryptoContext.secureRandom().nextBytes(block);
+
+        Cipher wrap = CryptoContext.cipher(HybridEncryption.RSA_TRANSFORMATION, keyPair.getPublic());
+        wrap.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        byte[] wrapped = wrap.doFinal(block);
+
+        Cipher unwrap = CryptoContext.cipher(HybridEncryption.RSA_TRANSFORMATION, keyPair.getPrivate());
+        unwrap.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        if (!Arrays.equals(block, unwrap.doFinal(wrapped))) {
+            throw new GeneralSecurityException("Unwrapped block does not match");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.whatsappclone.utils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Keeps the loaded key handles for the life of the process
+ *
+ * Loading means preference I/O and key parsing (or a keystore lookup), and the
+ * keys are needed on every chat open, so each is loaded at most once.
+ */
+public class CachedKeyStorage implements KeyStorage {
+    private final KeyStorage backend;
+    private volatile PrivateKey privateKey;
+    private volatile PublicKey publicKey;
+
+    public CachedKeyStorage(KeyStorage backend) {
+        this.backend = backend;
+    }
+
+    public KeyStorage getBackend() {
+        return backend;
+    }
+
+    @Override
+    public synchronized KeyPair generate() throws GeneralSecurityException {
+        KeyPair keyPair = backend.generate();
+        remember(keyPair);
+        return keyPair;
+    }
+
+    @Override
+    public synchronized void save(KeyPair keyPair) throws GeneralSecurityException {
+        backend.save(keyPair);
+        remember(keyPair);
+    }
+
+    @Override
+    public PrivateKey loadPrivateKey() throws GeneralSecurityException {
+        PrivateKey key = privateKey;
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            if (privateKey == null) {
+                privateKey = backend.loadPrivateKey();
+            }
+            return privateKey;
+        }
+    }
+
+    @Override
+    public PublicKey loadPublicKey() throws GeneralSecurityException {
+        PublicKey key = publicKey;
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            if (publicKey == null) {
+                publicKey = backend.loadPublicKey();
+            }
+            return publicKey;
+        }
+    }
+
+    @Override
+    public boolean hasKeys() {
+        return (privateKey != null && publicKey != null) || backend.hasKeys();
+    }
+
+    @Override
+    public synchronized void clear() {
+        backend.clear();
+        privateKey = null;
+        publicKey = null;
+    }
+
+    private void remember(KeyPair keyPair) {
+        privateKey = keyPair.getPrivate();
+        publicKey = keyPair.getPublic();
+    }
+}
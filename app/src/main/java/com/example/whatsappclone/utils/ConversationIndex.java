@@ -0,0 +1,149 @@
+package com.example.whatsappclone.utils;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.example.whatsappclone.Models.Users;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Chat list ordered by last message time (most recent first), then by user id
+ *
+ * Each user's sort key is remembered, so an update finds the row by binary
+ * search, moves only that row and reports the change to a ListUpdateCallback
+ * instead of re-sorting the whole list and refreshing every row.
+ *
+ * Not thread-safe; use it from the main thread.
+ */
+public class ConversationIndex {
+    private final ArrayList<Users> list;
+    private final HashMap<String, Long> times = new HashMap<>();
+    private final ListUpdateCallback callback;
+
+    /**
+     * @param list     backing list, also the one handed to the adapter; must start empty
+     * @param callback receives insert/remove/move/change events for the list
+     */
+    public ConversationIndex(ArrayList<Users> list, ListUpdateCallback callback) {
+        this.list = list;
+        this.callback = callback;
+    }
+
+    /**
+     * Insert a user or replace the stored one, repositioning it by its last message time
+     */
+    public void put(Users user) {
+        String userId = user.getUserId();
+        long time = timeOf(user.getLastMessageTime());
+        Long oldTime = times.get(userId);
+
+        if (oldTime == null) {
+            int position = insertionPoint(time, userId);
+            list.add(position, user);
+            times.put(userId, time);
+            callback.onInserted(position, 1);
+            return;
+        }
+
+        int from = indexOf(oldTime, userId);
+        if (oldTime == time) {
+            list.set(from, user);
+            callback.onChanged(from, 1, null);
+            return;
+        }
+
+        list.remove(from);
+        int to = insertionPoint(time, userId);
+        list.add(to, user);
+        times.put(userId, time);
+        if (from != to) {
+            callback.onMoved(from, to);
+        }
+        callback.onChanged(to, 1, null);
+    }
+
+    /**
+     * Update only the last message time of a known user
+     *
+     * @return false if the user is not in the list
+     */
+    public boolean setTime(String userId, Long lastMessageTime) {
+        Long oldTime = times.get(userId);
+        if (oldTime == null) {
+            return false;
+        }
+        Users user = list.get(indexOf(oldTime, userId));
+        user.setLastMessageTime(lastMessageTime);
+        put(user);
+        return true;
+    }
+
+    public void remove(String userId) {
+        Long oldTime = times.get(userId);
+        if (oldTime == null) {
+            return;
+        }
+        int position = indexOf(oldTime, userId);
+        list.remove(position);
+        times.remove(userId);
+        callback.onRemoved(position, 1);
+    }
+
+    public Users get(String userId) {
+        Long time = times.get(userId);
+        return time != null ? list.get(indexOf(time, userId)) : null;
+    }
+
+    /**
+     * Redraw a user's row without moving it (e.g. the preview or unread count changed)
+     */
+    public void notifyChanged(String userId) {
+        Long time = times.get(userId);
+        if (time != null) {
+            callback.onChanged(indexOf(time, userId), 1, null);
+        }
+    }
+
+    public int size() {
+        return list.size();
+    }
+
+    private int indexOf(long time, String userId) {
+        int position = insertionPoint(time, userId);
+        if (position >= list.size() || !list.get(position).getUserId().equals(userId)) {
+            throw new IllegalStateException("Conversation index out of sync for " + userId);
+        }
+        return position;
+    }
+
+    /**
+     * First position whose key is not ordered before (time, userId)
+     */
+    private int insertionPoint(long time, String userId) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Users other = list.get(mid);
+            if (compare(times.get(other.getUserId()), other.getUserId(), time, userId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(long time1, String userId1, long time2, String userId2) {
+        if (time1 != time2) {
+            // Most recent first
+            return time1 > time2 ? -1 : 1;
+        }
+        return userId1.compareTo(userId2);
+    }
+
+    private static long timeOf(Long time) {
+        return time != null ? time : 0L;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.whatsappclone.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.Transaction;
+
+import java.util.Map;
+
+/**
+ * Maintains the denormalized per-user conversation index
+ *
+ * Conversations/<ownerId>/<otherId> holds the last message's envelope id and its
+ * session key wrapped for the owner, its timestamp and the owner's unread count.
+ * The body is only in the envelope, see MessageEnvelopes, so a send writes it once.
+ * Summaries written before that carry the body itself as lastMessage. The chat list subscribes to
+ * Conversations/<myId> once instead of querying every chat room.
+ */
+public class ConversationSummaries {
+    private static final String TAG = "ConversationSummaries";
+    public static final String NODE = "Conversations";
+
+    /**
+     * Add both participants' summary updates for a sent message to a multi-path update.
+     * The sender's unread count is reset, the receiver's is incremented on the server.
+     */
+    public static void putSend(Map<String, Object> updates, String senderId, String receiverId,
+                               long timestamp, String envelopeId, HybridEncryption.Envelope envelope) {
+        putSummary(updates, senderId, receiverId, senderId, timestamp, envelopeId, envelope, 0L);
+        putSummary(updates, receiverId, senderId, senderId, timestamp, envelopeId, envelope, ServerValue.increment(1));
+    }
+
+    /**
+     * Reset the owner's unread count for a conversation, if it has a summary with
+     * unread messages. Opening a chat never creates a summary: one without a
+     * timestamp would sort first-ever in the chat list.
+     */
+    public static void markRead(DatabaseReference root, String ownerId, String otherId) {
+        root.child(NODE).child(ownerId).child(otherId).child("unreadCount").runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            public Transaction.Result doTransaction(@NonNull MutableData count) {
+                Long unread = count.getValue(Long.class);
+                if (unread == null) {
+                    // Left absent; if that was only a stale local copy, the server runs this again with its value
+                    return Transaction.success(count);
+                }
+                if (unread == 0L) {
+                    return Transaction.abort();
+                }
+                count.setValue(0L);
+                return Transaction.success(count);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+                if (error != null) {
+                    Log.e(TAG, "Failed to reset unread count: " + error.getMessage());
+                }
+            }
+        }, false);
+    }
+
+    private static void putSummary(Map<String, Object> updates, String ownerId, String otherId, String senderId,
+                                   long timestamp, String envelopeId, HybridEncryption.Envelope envelope,
+                                   Object unreadCount) {
+        String path = NODE + "/" + ownerId + "/" + otherId + "/";
+        // Clears the body a summary from before envelope ids may still hold
+        updates.put(path + "lastMessage", null);
+        updates.put(path + "envelopeId", envelopeId);
+        updates.put(path + "encryptedSessionKey", envelope.getEncryptedSessionKey(ownerId));
+        updates.put(path + "senderId", senderId);
+        updates.put(path + "timestamp", timestamp);
+        updates.put(path + "unreadCount", unreadCount);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.whatsappclone.utils;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+/**
+ * Per-thread Cipher, KeyFactory, KeyGenerator and SecureRandom instances for the crypto utils
+ *
+ * Cipher.getInstance and KeyFactory.getInstance walk the provider list on every
+ * call, and a new SecureRandom has to be seeded. For a short chat message that
+ * setup costs more than the encryption itself. None of these classes are safe
+ * to share between threads, so each thread keeps its own instances; callers
+ * must init() a Cipher before every use, which resets any earlier state.
+ *
+ * getStats() counts creations and reuses, and estimates the time saved from
+ * what the creations on cache misses cost; a reuse never builds anything.
+ */
+public final class CryptoContext {
+
+    private static final Stats stats = new Stats();
+
+    private static final ThreadLocal<Map<String, Cipher>> ciphers = new ThreadLocal<Map<String, Cipher>>() {
+        @Override
+        protected Map<String, Cipher> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, KeyFactory>> keyFactories = new ThreadLocal<Map<String, KeyFactory>>() {
+        @Override
+        protected Map<String, KeyFactory> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, KeyGenerator>> keyGenerators = new ThreadLocal<Map<String, KeyGenerator>>() {
+        @Override
+        protected Map<String, KeyGenerator> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final ThreadLocal<SecureRandom> secureRandom = new ThreadLocal<>();
+
+    private CryptoContext() {
+    }
+
+    /**
+     * @return this thread's Cipher for the transformation; init() it before use
+     */
+    public static Cipher cipher(String transformation) throws GeneralSecurityException {
+        return lookup(ciphers.get(), "Cipher/" + transformation, transformation,
+                () -> Cipher.getInstance(transformation));
+    }
+
+    /**
+     * A Cipher binds to a provider on its first init(), and keys from another
+     * provider (e.g. AndroidKeyStore handles) are then rejected. This keeps a
+     * separate Cipher per key implementation.
+     *
+     * @return this thread's Cipher for the transformation and kind of key; init() it before use
+     */
+    public static Cipher cipher(String transformation, Key key) throws GeneralSecurityException {
+        return lookup(ciphers.get(), "Cipher/" + transformation, transformation + "@" + key.getClass().getName(),
+                () -> Cipher.getInstance(transformation));
+    }
+
+    /**
+     * @return this thread's KeyFactory for the algorithm
+     */
+    public static KeyFactory keyFactory(String algorithm) throws GeneralSecurityException {
+        return lookup(keyFactories.get(), "KeyFactory/" + algorithm, algorithm,
+                () -> KeyFactory.getInstance(algorithm));
+    }
+
+    /**
+     * @return this thread's KeyGenerator for the algorithm; init() it before use
+     */
+    public static KeyGenerator keyGenerator(String algorithm) throws GeneralSecurityException {
+        return lookup(keyGenerators.get(), "KeyGenerator/" + algorithm, algorithm,
+                () -> KeyGenerator.getInstance(algorithm));
+    }
+
+    /**
+     * @return this thread's seeded SecureRandom
+     */
+    public static SecureRandom secureRandom() {
+        SecureRandom random = secureRandom.get();
+        if (random != null) {
+            stats.recordReuse();
+            return random;
+        }
+
+        long start = System.nanoTime();
+        random = newSecureRandom();
+        stats.recordCreate("SecureRandom", System.nanoTime() - start);
+        secureRandom.set(random);
+        return random;
+    }
+
+    public static Stats getStats() {
+        return stats;
+    }
+
+    private static SecureRandom newSecureRandom() {
+        SecureRandom random = new SecureRandom();
+        // Force seeding now so its cost is counted as creation time
+        random.nextBytes(new byte[1]);
+        return random;
+    }
+
+    /**
+     * @param kind what the factory builds, e.g. "Cipher/AES/GCM/NoPadding", for the stats
+     */
+    private static <T> T lookup(Map<String, T> instances, String kind, String name, Factory<T> factory)
+            throws GeneralSecurityException {
+        T instance = instances.get(name);
+        if (instance != null) {
+            stats.recordReuse();
+            return instance;
+        }
+
+        long start = System.nanoTime();
+        instance = factory.create();
+        stats.recordCreate(kind, System.nanoTime() - start);
+        instances.put(name, instance);
+        return instance;
+    }
+
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /**
+     * Counters across all threads
+     */
+    public static final class Stats {
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong createNanos = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+        // Creations of a kind another thread had already built, i.e. without class loading
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong sampleNanos = new AtomicLong();
+        private final Set<String> kinds = ConcurrentHashMap.newKeySet();
+
+        void recordCreate(String kind, long nanos) {
+            created.incrementAndGet();
+            createNanos.addAndGet(nanos);
+            if (!kinds.add(kind)) {
+                samples.incrementAndGet();
+                sampleNanos.addAndGet(nanos);
+            }
+        }
+
+        void recordReuse() {
+            reused.incrementAndGet();
+        }
+
+        /**
+         * Instances built, i.e. provider lookups and seedings actually paid for
+         */
+        public long getCreated() {
+            return created.get();
+        }
+
+        /**
+         * Requests served by an existing instance
+         */
+        public long getReused() {
+            return reused.get();
+        }
+
+        public long getCreateNanos() {
+            return createNanos.get();
+        }
+
+        /**
+         * Estimated time saved: reuses times the average cost of building an instance.
+         * The first creation of each kind is left out of the average while there are
+         * others, since it includes class loading.
+         */
+        public long getSavedNanos() {
+            long count = samples.get();
+            if (count > 0) {
+                return reused.get() * (sampleNanos.get() / count);
+            }
+            long all = created.get();
+            return all == 0 ? 0 : reused.get() * (createNanos.get() / all);
+        }
+
+        @Override
+        public String toString() {
+            return "CryptoContext{created=" + getCreated()
+                    + ", reused=" + getReused()
+                    + ", createMs=" + getCreateNanos() / 1_000_000
+                    + ", savedMs~" + getSavedNanos() / 1_000_000 + "}";
+        }
+    }
+}
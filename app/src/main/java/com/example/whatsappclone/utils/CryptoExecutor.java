@@ -0,0 +1,82 @@
+package com.example.whatsappclone.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs encryption, decryption and key generation off the main thread
+ *
+ * Work is executed on a small bounded pool of background-priority threads and
+ * the result is handed back to the main thread through a Callback, so callers
+ * can update adapters and views directly from onResult/onError.
+ */
+public class CryptoExecutor {
+    private static final String TAG = "CryptoExecutor";
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * Receives the outcome of a background task on the main thread
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "crypto-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        // Threads never time out: each keeps its CryptoContext ciphers, key factories
+        // and seeded SecureRandom, which an idle timeout would throw away
+        return new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                threadFactory);
+    }
+
+    /**
+     * Run a task on the crypto pool and deliver its result on the main thread
+     */
+    public static <T> void submit(Callable<T> task, Callback<T> callback) {
+        try {
+            executor.execute(() -> {
+                try {
+                    T result = task.call();
+                    mainHandler.post(() -> callback.onResult(result));
+                } catch (Exception e) {
+                    mainHandler.post(() -> callback.onError(e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Crypto queue is full, rejecting task", e);
+            mainHandler.post(() -> callback.onError(e));
+        }
+    }
+}
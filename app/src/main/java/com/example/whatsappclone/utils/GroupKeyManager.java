@@ -0,0 +1,735 @@
+package com.example.whatsappclone.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Shared AES keys of group chats, handed to each member wrapped with their RSA key
+ *
+ * A group key is written as GroupKeys/<groupId>/keys/<keyId>/<memberId>, wrapped
+ * once for every member with their PublicKeys entry, and GroupKeys/<groupId>/current
+ * names the key new messages use. Each message records its keyId, so a reader
+ * unwraps a key once, keeps it in memory, and decrypts every message with it in a
+ * single AES operation. A key that was not wrapped for this user is remembered as
+ * unreadable and its messages are skipped without attempting to decrypt them; a
+ * key whose fetch failed is not, and is fetched again the next time it is needed.
+ *
+ * The key is rotated in the same update that changes membership, see Groups:
+ * a new member cannot read what was sent before they
+ * joined, a removed one cannot read what follows. A member who had not published
+ * a public key yet is included in the next rotation, which any member triggers
+ * by sending while the current key is not readable to them.
+ *
+ * Open groups (see Groups.isOpen()) are the exception, since rotating on every
+ * join would wrap a key for every member each time someone joins. A member
+ * without the current key adds themselves to GroupKeys/<groupId>/waiting, and a
+ * member who has it and has the group on screen wraps that one key for each
+ * waiting member (see startSharing()). Only if the key is older than
+ * OPEN_KEY_MAX_AGE_MS, when nobody may be left to share it, is it rotated instead.
+ *
+ * Keys and public keys are fetched on Firebase's own threads and only the RSA work
+ * runs on the crypto pool, so no crypto thread waits on the network. The synchronous
+ * keyFor() is safe to call from a MessagePager.Decoder: it does not wait for a fetch,
+ * and throws KeyPendingException for a key that is still being fetched. All other methods are called
+ * on the main thread.
+ */
+public class GroupKeyManager {
+    private static final String TAG = "GroupKeyManager";
+    public static final String NODE = "GroupKeys";
+    private static final String KEYS = "keys";
+    private static final String CURRENT = "current";
+    private static final String WAITING = "waiting";
+    private static final String ROTATED_AT = "rotatedAt";
+    // A member of an open group nobody has shared the current key with rotates it once it is this old
+    private static final long OPEN_KEY_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Notified on the main thread when keyFor() can answer for a key it was fetching
+     */
+    public interface Listener {
+        void onKeyResolved(String groupId, String keyId);
+    }
+
+    /**
+     * The key is being fetched, or for an open group waited for from its members;
+     * decode again once listeners hear it is resolved
+     */
+    public static final class KeyPendingException extends Exception {
+        KeyPendingException(String id) {
+            super("Group key " + id + " is being fetched");
+        }
+    }
+
+    /**
+     * A group key and the id messages encrypted with it carry
+     */
+    public static final class GroupKey {
+        private final String keyId;
+        private final SecretKey key;
+
+        GroupKey(String keyId, SecretKey key) {
+            this.keyId = keyId;
+            this.key = key;
+        }
+
+        public String getKeyId() {
+            return keyId;
+        }
+
+        public SecretKey getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * A new key and the multi-path update that distributes it
+     */
+    private static final class Rotation {
+        final GroupKey groupKey;
+        final Map<String, Object> updates;
+
+        Rotation(GroupKey groupKey, Map<String, Object> updates) {
+            this.groupKey = groupKey;
+            this.updates = updates;
+        }
+    }
+
+    private static final class Group {
+        boolean loaded;
+        String currentKeyId;
+        final List<CryptoExecutor.Callback<GroupKey>> waitingForCurrent = new ArrayList<>();
+        // Callers of rotate() sharing the rotation in flight, null when there is none
+        List<CryptoExecutor.Callback<GroupKey>> rotating;
+        // Follows the members waiting for the current key while the group is on screen
+        ValueEventListener sharing;
+    }
+
+    private static volatile GroupKeyManager instance;
+
+    public static GroupKeyManager getInstance(Context context) {
+        if (instance == null) {
+            synchronized (GroupKeyManager.class) {
+                if (instance == null) {
+                    instance = new GroupKeyManager(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final DatabaseReference root;
+    private final PublicKeyDirectory directory;
+    // Unwrapped keys by groupId/keyId, shared with the decoder threads
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+    private final Set<String> fetching = ConcurrentHashMap.newKeySet();
+    // Current keys of open groups this user is waiting to be given a copy of
+    private final Set<String> awaitingCopy = new HashSet<>();
+    private final Map<String, Group> groups = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private GroupKeyManager(Context context) {
+        this.context = context;
+        this.root = FirebaseDatabase.getInstance().getReference();
+        this.directory = PublicKeyDirectory.getInstance(context);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the key messages of the group with this keyId are encrypted with, or
+     * null if it was not wrapped for this user. Never waits: a key this process has
+     * not unwrapped yet is fetched in the background. Callable from any thread.
+     *
+     * @throws KeyPendingException while the key is being fetched
+     */
+    public SecretKey keyFor(String groupId, String keyId) throws KeyPendingException {
+        String id = groupId + "/" + keyId;
+        SecretKey key = keys.get(id);
+        if (key != null || unreadable.contains(id)) {
+            return key;
+        }
+        // One fetch per key, however many messages are decoded at once
+        if (fetching.add(id)) {
+            fetch(groupId, keyId, null);
+        }
+        throw new KeyPendingException(id);
+    }
+
+    /**
+     * Deliver the key with this keyId on the main thread, or null if it was not
+     * wrapped for this user
+     */
+    public void keyFor(String groupId, String keyId, CryptoExecutor.Callback<SecretKey> callback) {
+        String id = groupId + "/" + keyId;
+        SecretKey key = keys.get(id);
+        if (key != null || unreadable.contains(id)) {
+            callback.onResult(key);
+            return;
+        }
+        fetching.add(id);
+        fetch(groupId, keyId, callback);
+    }
+
+    /**
+     * Fetch and unwrap this user's copy of a key. Only a missing or unusable copy
+     * marks the key unreadable; a failed fetch leaves it to be fetched again.
+     */
+    private void fetch(String groupId, String keyId, CryptoExecutor.Callback<SecretKey> callback) {
+        String id = groupId + "/" + keyId;
+        String userId = FirebaseAuth.getInstance().getUid();
+        keysRef(groupId).child(keyId).child(userId).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                Log.w(TAG, "Failed to fetch group key " + id, task.getException());
+                fetching.remove(id);
+                if (callback != null) {
+                    callback.onError(task.getException());
+                }
+                return;
+            }
+            String wrapped = task.getResult().getValue(String.class);
+            if (wrapped == null) {
+                resolved(groupId, keyId, null, callback);
+                return;
+            }
+            CryptoExecutor.submit(() -> unwrap(id, wrapped), new CryptoExecutor.Callback<SecretKey>() {
+                @Override
+                public void onResult(SecretKey key) {
+                    resolved(groupId, keyId, key, callback);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    // No private key on this device yet
+                    Log.w(TAG, "Cannot unwrap group key " + id + " yet: " + e.getMessage());
+                    fetching.remove(id);
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * @return the unwrapped key, or null if it was wrapped for a key pair this device no longer has
+     */
+    private SecretKey unwrap(String id, String wrapped) throws Exception {
+        PrivateKey privateKey = RSAKeyManager.loadPrivateKey(context);
+        if (privateKey == null) {
+            throw new IllegalStateException("No private key to unwrap group keys with");
+        }
+        try {
+            return HybridEncryption.unwrapKey(wrapped, privateKey);
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot unwrap group key " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void resolved(String groupId, String keyId, SecretKey key, CryptoExecutor.Callback<SecretKey> callback) {
+        String id = groupId + "/" + keyId;
+        if (key != null) {
+            keys.put(id, key);
+        } else {
+            unreadable.add(id);
+            if (Groups.isOpen(groupId) && keyId.equals(group(groupId).currentKeyId)) {
+                awaitCopy(groupId, keyId);
+            }
+        }
+        fetching.remove(id);
+        if (callback != null) {
+            callback.onResult(key);
+        }
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onKeyResolved(groupId, keyId);
+        }
+    }
+
+    /**
+     * Deliver the key to encrypt new messages of the group with, rotating first if
+     * the group has none or its current key is not readable to this user
+     */
+    public void currentKey(String groupId, CryptoExecutor.Callback<GroupKey> callback) {
+        Group group = group(groupId);
+        if (!group.loaded) {
+            group.waitingForCurrent.add(callback);
+            return;
+        }
+        String keyId = group.currentKeyId;
+        if (keyId == null) {
+            rotate(groupId, callback);
+            return;
+        }
+        keyFor(groupId, keyId, new CryptoExecutor.Callback<SecretKey>() {
+            @Override
+            public void onResult(SecretKey key) {
+                if (key != null) {
+                    callback.onResult(new GroupKey(keyId, key));
+                } else if (Groups.isOpen(groupId)) {
+                    requestKey(groupId, keyId, callback);
+                } else {
+                    rotate(groupId, callback);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Ask the members of an open group for a copy of its current key, or rotate it
+     * if it is old enough that nobody may be left to share it
+     *
+     * @param callback fails with KeyPendingException while waiting for a copy
+     */
+    private void requestKey(String groupId, String keyId, CryptoExecutor.Callback<GroupKey> callback) {
+        root.child(NODE).child(groupId).child(ROTATED_AT).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                callback.onError(task.getException());
+                return;
+            }
+            Long rotatedAt = task.getResult().getValue(Long.class);
+            if (rotatedAt == null || System.currentTimeMillis() - rotatedAt > OPEN_KEY_MAX_AGE_MS) {
+                rotate(groupId, callback);
+                return;
+            }
+            awaitCopy(groupId, keyId);
+            callback.onError(new KeyPendingException(groupId + "/" + keyId));
+        });
+    }
+
+    /**
+     * Add this user to the open group's waiting members and fetch the key again
+     * once a member has wrapped a copy for them
+     */
+    private void awaitCopy(String groupId, String keyId) {
+        String id = groupId + "/" + keyId;
+        if (!awaitingCopy.add(id)) {
+            return;
+        }
+        String userId = FirebaseAuth.getInstance().getUid();
+        DatabaseReference copy = keysRef(groupId).child(keyId).child(userId);
+        copy.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (snapshot.getValue(String.class) == null) {
+                    return;
+                }
+                copy.removeEventListener(this);
+                awaitingCopy.remove(id);
+                unreadable.remove(id);
+                fetching.add(id);
+                fetch(groupId, keyId, null);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Stopped waiting for group key " + id + ": " + error.getMessage());
+                awaitingCopy.remove(id);
+            }
+        });
+        waitingRef(groupId).child(userId).setValue(true);
+    }
+
+    /**
+     * Wrap the current key of an open group for each member waiting for it, for as
+     * long as the group is on screen; call stopSharing() when it is closed
+     */
+    public void startSharing(String groupId) {
+        Group group = group(groupId);
+        if (group.sharing != null) {
+            return;
+        }
+        String userId = FirebaseAuth.getInstance().getUid();
+        group.sharing = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Set<String> waiting = new LinkedHashSet<>();
+                for (DataSnapshot member : snapshot.getChildren()) {
+                    waiting.add(member.getKey());
+                }
+                waiting.remove(userId);
+                if (!waiting.isEmpty()) {
+                    share(groupId, waiting);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Stopped sharing the key of " + groupId + ": " + error.getMessage());
+            }
+        };
+        waitingRef(groupId).addValueEventListener(group.sharing);
+    }
+
+    public void stopSharing(String groupId) {
+        Group group = groups.get(groupId);
+        if (group != null && group.sharing != null) {
+            waitingRef(groupId).removeEventListener(group.sharing);
+            group.sharing = null;
+        }
+    }
+
+    /**
+     * Wrap the current key for the waiting members who have a public key, if this user has it
+     */
+    private void share(String groupId, Set<String> waiting) {
+        root.child(NODE).child(groupId).child(CURRENT).get().addOnCompleteListener(currentTask -> {
+            String keyId = currentTask.isSuccessful() ? currentTask.getResult().getValue(String.class) : null;
+            if (keyId == null) {
+                return;
+            }
+            keyFor(groupId, keyId, new CryptoExecutor.Callback<SecretKey>() {
+                @Override
+                public void onResult(SecretKey key) {
+                    if (key == null) {
+                        return;
+                    }
+                    Map<String, Task<DataSnapshot>> fetches = fetchPublicKeys(waiting);
+                    Tasks.whenAllComplete(fetches.values()).addOnCompleteListener(done ->
+                            CryptoExecutor.submit(() -> {
+                                Map<String, String> wrapped = wrap(key, publicKeys(waiting, fetches));
+                                Map<String, Object> updates = new HashMap<>();
+                                putCopies(updates, groupId, keyId, wrapped);
+                                for (String member : wrapped.keySet()) {
+                                    updates.put(NODE + "/" + groupId + "/" + WAITING + "/" + member, null);
+                                }
+                                return updates;
+                            }, new CryptoExecutor.Callback<Map<String, Object>>() {
+                                @Override
+                                public void onResult(Map<String, Object> updates) {
+                                    if (!updates.isEmpty()) {
+                                        root.updateChildren(updates);
+                                    }
+                                }
+
+                                @Override
+                                public void onError(Exception e) {
+                                    Log.w(TAG, "Failed to share the key of " + groupId, e);
+                                }
+                            }));
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.w(TAG, "Cannot share the key of " + groupId + " yet: " + e.getMessage());
+                }
+            });
+        });
+    }
+
+    /**
+     * Add a member and distribute a new key that includes them
+     */
+    public void addMember(String groupId, String userId, CryptoExecutor.Callback<GroupKey> callback) {
+        changeMembers(groupId, Collections.singleton(userId), Collections.emptySet(), null, callback);
+    }
+
+    /**
+     * Remove a member and distribute a new key that leaves them out
+     */
+    public void removeMember(String groupId, String userId, CryptoExecutor.Callback<GroupKey> callback) {
+        changeMembers(groupId, Collections.emptySet(), Collections.singleton(userId), null, callback);
+    }
+
+    /**
+     * Change the members and distribute a new key to the resulting members, in one update
+     *
+     * @param extra more updates to write with it, e.g. a new group's info; may be null
+     */
+    public void changeMembers(String groupId, Collection<String> added, Collection<String> removed,
+                              Map<String, Object> extra, CryptoExecutor.Callback<GroupKey> callback) {
+        distribute(groupId, added, removed, extra, callback);
+    }
+
+    /**
+     * Distribute a new key to the current members; rotations requested while one
+     * is in flight share it
+     */
+    public void rotate(String groupId, CryptoExecutor.Callback<GroupKey> callback) {
+        Group group = group(groupId);
+        if (group.rotating != null) {
+            if (callback != null) {
+                group.rotating.add(callback);
+            }
+            return;
+        }
+        group.rotating = new ArrayList<>();
+        if (callback != null) {
+            group.rotating.add(callback);
+        }
+        distribute(groupId, Collections.emptySet(), Collections.emptySet(), null, new CryptoExecutor.Callback<GroupKey>() {
+            @Override
+            public void onResult(GroupKey result) {
+                List<CryptoExecutor.Callback<GroupKey>> callbacks = group.rotating;
+                group.rotating = null;
+                for (CryptoExecutor.Callback<GroupKey> waiting : callbacks) {
+                    waiting.onResult(result);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                List<CryptoExecutor.Callback<GroupKey>> callbacks = group.rotating;
+                group.rotating = null;
+                for (CryptoExecutor.Callback<GroupKey> waiting : callbacks) {
+                    waiting.onError(e);
+                }
+            }
+        });
+    }
+
+    private void distribute(String groupId, Collection<String> added, Collection<String> removed,
+                            Map<String, Object> extra, CryptoExecutor.Callback<GroupKey> callback) {
+        // Members and missing public keys are fetched here; only key generation and wrapping use the crypto pool
+        membersRef(groupId).get().addOnCompleteListener(membersTask -> {
+            if (!membersTask.isSuccessful()) {
+                onDistributeFailed(groupId, membersTask.getException(), callback);
+                return;
+            }
+            Set<String> members = new LinkedHashSet<>();
+            for (DataSnapshot member : membersTask.getResult().getChildren()) {
+                if (Boolean.TRUE.equals(member.getValue(Boolean.class))) {
+                    members.add(member.getKey());
+                }
+            }
+            members.addAll(added);
+            members.removeAll(removed);
+
+            Map<String, Task<DataSnapshot>> fetches = fetchPublicKeys(members);
+            Tasks.whenAllComplete(fetches.values()).addOnCompleteListener(done ->
+                    CryptoExecutor.submit(() -> prepareRotation(groupId, members, fetches, added, removed, extra),
+                            new CryptoExecutor.Callback<Rotation>() {
+                                @Override
+                                public void onResult(Rotation rotation) {
+                                    write(groupId, rotation, callback);
+                                }
+
+                                @Override
+                                public void onError(Exception e) {
+                                    onDistributeFailed(groupId, e, callback);
+                                }
+                            }));
+        });
+    }
+
+    private void write(String groupId, Rotation rotation, CryptoExecutor.Callback<GroupKey> callback) {
+        root.updateChildren(rotation.updates).addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                onDistributeFailed(groupId, task.getException(), callback);
+                return;
+            }
+            GroupKey groupKey = rotation.groupKey;
+            keys.put(groupId + "/" + groupKey.getKeyId(), groupKey.getKey());
+            group(groupId).currentKeyId = groupKey.getKeyId();
+            Log.d(TAG, "Distributed key " + groupKey.getKeyId() + " for " + groupId);
+            if (callback != null) {
+                callback.onResult(groupKey);
+            }
+        });
+    }
+
+    private void onDistributeFailed(String groupId, Exception e, CryptoExecutor.Callback<GroupKey> callback) {
+        Log.e(TAG, "Failed to distribute a key for " + groupId, e);
+        if (callback != null) {
+            callback.onError(e);
+        }
+    }
+
+    /**
+     * Generate a key and wrap it for every member with a known public key; runs on
+     * the crypto pool once the public keys missing from the directory are fetched
+     */
+    private Rotation prepareRotation(String groupId, Set<String> members, Map<String, Task<DataSnapshot>> fetches,
+                                     Collection<String> added, Collection<String> removed,
+                                     Map<String, Object> extra) throws Exception {
+        String userId = FirebaseAuth.getInstance().getUid();
+        if (!members.contains(userId)) {
+            throw new IllegalStateException("Not a member of " + groupId);
+        }
+
+        Map<String, PublicKey> publicKeys = publicKeys(members, fetches);
+        if (!publicKeys.containsKey(userId)) {
+            throw new IllegalStateException("This device has no key pair");
+        }
+
+        SecretKey key = AESUtils.generateKey();
+        String keyId = keysRef(groupId).push().getKey();
+        Map<String, Object> updates = new HashMap<>();
+        putKey(updates, groupId, keyId, wrap(key, publicKeys));
+        updates.put(NODE + "/" + groupId + "/" + ROTATED_AT, ServerValue.TIMESTAMP);
+        if (Groups.isOpen(groupId)) {
+            // Everyone waiting is given the new key, or is left for the next one
+            updates.put(NODE + "/" + groupId + "/" + WAITING, null);
+        }
+        for (String member : added) {
+            Groups.putMember(updates, groupId, member, true);
+        }
+        for (String member : removed) {
+            Groups.putMember(updates, groupId, member, false);
+        }
+        if (extra != null) {
+            updates.putAll(extra);
+        }
+        return new Rotation(new GroupKey(keyId, key), updates);
+    }
+
+    /**
+     * Start fetching the public keys of the members the directory does not have yet
+     */
+    private Map<String, Task<DataSnapshot>> fetchPublicKeys(Collection<String> members) {
+        String userId = FirebaseAuth.getInstance().getUid();
+        Map<String, Task<DataSnapshot>> fetches = new HashMap<>();
+        for (String member : members) {
+            if (!member.equals(userId) && directory.get(member) == null) {
+                fetches.put(member, root.child(PublicKeyDirectory.NODE).child(member).get());
+            }
+        }
+        return fetches;
+    }
+
+    /**
+     * @return the public key of each member that has one, by member id; runs on the
+     * crypto pool once the fetches are complete
+     */
+    private Map<String, PublicKey> publicKeys(Collection<String> members, Map<String, Task<DataSnapshot>> fetches)
+            throws Exception {
+        String userId = FirebaseAuth.getInstance().getUid();
+        Map<String, PublicKey> publicKeys = new HashMap<>();
+        for (String member : members) {
+            PublicKey publicKey = member.equals(userId) ? RSAKeyManager.loadPublicKey(context) : directory.get(member);
+            Task<DataSnapshot> fetch = fetches.get(member);
+            if (publicKey == null && fetch != null) {
+                String encoded = fetch.isSuccessful() ? fetch.getResult().getValue(String.class) : null;
+                if (encoded != null) {
+                    publicKey = RSAKeyManager.stringToPublicKey(encoded);
+                }
+            }
+            if (publicKey != null) {
+                publicKeys.put(member, publicKey);
+            } else {
+                Log.w(TAG, "No public key for " + member + ", leaving them for the next key");
+            }
+        }
+        return publicKeys;
+    }
+
+    /**
+     * @return the key wrapped for each member's public key, by member id
+     */
+    static Map<String, String> wrap(SecretKey key, Map<String, PublicKey> publicKeys) throws Exception {
+        Map<String, String> wrapped = new HashMap<>();
+        for (Map.Entry<String, PublicKey> member : publicKeys.entrySet()) {
+            wrapped.put(member.getKey(), HybridEncryption.wrapKey(key, member.getValue()));
+        }
+        return wrapped;
+    }
+
+    /**
+     * Add the wrapped copies of a key to a multi-path update and make it the group's current key
+     */
+    static void putKey(Map<String, Object> updates, String groupId, String keyId, Map<String, String> wrapped) {
+        putCopies(updates, groupId, keyId, wrapped);
+        updates.put(NODE + "/" + groupId + "/" + CURRENT, keyId);
+    }
+
+    /**
+     * Add wrapped copies of an existing key to a multi-path update
+     */
+    static void putCopies(Map<String, Object> updates, String groupId, String keyId, Map<String, String> wrapped) {
+        String base = NODE + "/" + groupId + "/" + KEYS + "/" + keyId + "/";
+        for (Map.Entry<String, String> member : wrapped.entrySet()) {
+            updates.put(base + member.getKey(), member.getValue());
+        }
+    }
+
+    /**
+     * State of a group, following its current key id from the first time it is needed
+     */
+    private Group group(String groupId) {
+        Group group = groups.get(groupId);
+        if (group != null) {
+            return group;
+        }
+        Group created = new Group();
+        groups.put(groupId, created);
+        root.child(NODE).child(groupId).child(CURRENT)
+                .addValueEventListener(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        created.currentKeyId = snapshot.getValue(String.class);
+                        created.loaded = true;
+                        if (created.currentKeyId != null && Groups.isOpen(groupId)
+                                && unreadable.contains(groupId + "/" + created.currentKeyId)) {
+                            awaitCopy(groupId, created.currentKeyId);
+                        }
+                        List<CryptoExecutor.Callback<GroupKey>> waiting = new ArrayList<>(created.waitingForCurrent);
+                        created.waitingForCurrent.clear();
+                        for (CryptoExecutor.Callback<GroupKey> callback : waiting) {
+                            currentKey(groupId, callback);
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        Log.e(TAG, "Current key listener cancelled for " + groupId + ": " + error.getMessage());
+                        List<CryptoExecutor.Callback<GroupKey>> waiting = new ArrayList<>(created.waitingForCurrent);
+                        created.waitingForCurrent.clear();
+                        for (CryptoExecutor.Callback<GroupKey> callback : waiting) {
+                            callback.onError(error.toException());
+                        }
+                    }
+                });
+        return created;
+    }
+
+    private DatabaseReference keysRef(String groupId) {
+        return root.child(NODE).child(groupId).child(KEYS);
+    }
+
+    private DatabaseReference waitingRef(String groupId) {
+        return root.child(NODE).child(groupId).child(WAITING);
+    }
+
+    private DatabaseReference membersRef(String groupId) {
+        return root.child(Groups.NODE).child(groupId).child(Groups.MEMBERS);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.whatsappclone.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.whatsappclone.Models.GroupInfo;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Group chats: their rooms, members and the per-user index of groups
+ *
+ * groups/<groupId>/info holds the name and the last message (encrypted with the
+ * group key), groups/<groupId>/members/<userId> the members, and
+ * userGroups/<userId>/<groupId> the groups of each user. Messages are written
+ * once to groupMessages/<groupId> and read there by every member, so a client
+ * only follows its own groups: the chat list listens to userGroups/<myId> and
+ * one info node per group, and a group's room is attached only while it is open.
+ *
+ * Membership changes go through GroupKeyManager, which writes them together with
+ * a new group key. The global group is open: anyone may join it, and a rotation
+ * on each join would wrap a key for every member every time. Joining it only
+ * writes the membership, and members who have the current key wrap it for the
+ * joiner later, see GroupKeyManager.
+ */
+public class Groups {
+    private static final String TAG = "Groups";
+    public static final String NODE = "groups";
+    public static final String INDEX_NODE = "userGroups";
+    public static final String MESSAGES_NODE = "groupMessages";
+    public static final String INFO = "info";
+    public static final String MEMBERS = "members";
+
+    // The group everyone could post to before groups existed; its messages keep their old node
+    public static final String GLOBAL_ID = "global";
+    public static final String GLOBAL_NAME = "Group Chat";
+    private static final String GLOBAL_ROOM = "Group Chat";
+
+    /**
+     * @return the database path of the group's messages, also its local store key
+     */
+    public static String roomOf(String groupId) {
+        return GLOBAL_ID.equals(groupId) ? GLOBAL_ROOM : MESSAGES_NODE + "/" + groupId;
+    }
+
+    /**
+     * @return true for groups anyone may join, whose key is not rotated when they do
+     */
+    public static boolean isOpen(String groupId) {
+        return GLOBAL_ID.equals(groupId);
+    }
+
+    /**
+     * @return the name to show for the group; info may be null
+     */
+    public static String nameOf(String groupId, GroupInfo info) {
+        if (info != null && info.getName() != null) {
+            return info.getName();
+        }
+        return GLOBAL_ID.equals(groupId) ? GLOBAL_NAME : "Group";
+    }
+
+    /**
+     * Add a new group's name and creator to a multi-path update
+     */
+    public static void putInfo(Map<String, Object> updates, String groupId, String name, String creatorId,
+                               long createdAt) {
+        String path = NODE + "/" + groupId + "/" + INFO + "/";
+        updates.put(path + "name", name);
+        updates.put(path + "createdBy", creatorId);
+        updates.put(path + "createdAt", createdAt);
+    }
+
+    /**
+     * Add or remove a member, in the group and in the member's own index, in a multi-path update
+     */
+    public static void putMember(Map<String, Object> updates, String groupId, String userId, boolean member) {
+        Object value = member ? Boolean.TRUE : null;
+        updates.put(NODE + "/" + groupId + "/" + MEMBERS + "/" + userId, value);
+        updates.put(INDEX_NODE + "/" + userId + "/" + groupId, value);
+    }
+
+    /**
+     * Add a sent message's preview to the group info in a multi-path update
+     */
+    public static void putLastMessage(Map<String, Object> updates, String groupId, String senderId,
+                                      String encryptedMessage, String keyId, long timestamp) {
+        String path = NODE + "/" + groupId + "/" + INFO + "/";
+        updates.put(path + "lastMessage", encryptedMessage);
+        updates.put(path + "keyId", keyId);
+        updates.put(path + "senderId", senderId);
+        updates.put(path + "timestamp", timestamp);
+    }
+
+    /**
+     * Add the signed-in user to the global group unless they are already a member
+     */
+    public static void joinGlobal() {
+        String userId = FirebaseAuth.getInstance().getUid();
+        DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+        root.child(NODE).child(GLOBAL_ID).child(MEMBERS).child(userId).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                Log.w(TAG, "Failed to check membership of the global group", task.getException());
+                return;
+            }
+            if (!Boolean.TRUE.equals(task.getResult().getValue(Boolean.class))) {
+                Map<String, Object> updates = new HashMap<>();
+                putMember(updates, GLOBAL_ID, userId, true);
+                root.updateChildren(updates);
+            }
+        });
+    }
+
+    /**
+     * Create a group of the signed-in user and the given members, with its first key
+     *
+     * @param callback receives the new group's id on the main thread
+     */
+    public static void create(Context context, String name, Collection<String> memberIds,
+                              CryptoExecutor.Callback<String> callback) {
+        String creatorId = FirebaseAuth.getInstance().getUid();
+        String groupId = FirebaseDatabase.getInstance().getReference().child(NODE).push().getKey();
+
+        Set<String> members = new LinkedHashSet<>(memberIds);
+        members.add(creatorId);
+        Map<String, Object> updates = new HashMap<>();
+        putInfo(updates, groupId, name, creatorId, System.currentTimeMillis());
+
+        GroupKeyManager.getInstance(context).changeMembers(groupId, members, Collections.emptySet(), updates,
+                new CryptoExecutor.Callback<GroupKeyManager.GroupKey>() {
+                    @Override
+                    public void onResult(GroupKeyManager.GroupKey result) {
+                        callback.onResult(groupId);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        callback.onError(e);
+                    }
+                });
+    }
+}
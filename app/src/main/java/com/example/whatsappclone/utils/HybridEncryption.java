@@ -1,14 +1,16 @@
 package com.example.whatsappclone.utils;
 
-import android.util.Base64;
 import android.util.Log;
 
 import java.nio.charset.StandardCharsets;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Hybrid Encryption: RSA + AES
@@ -20,19 +22,21 @@ import javax.crypto.SecretKey;
  * 4. Send both encrypted message and encrypted session key
  * 
  * Decryption:
- * 1. Decrypt the AES session key using RSA private key
+ * 1. Decrypt the AES session key using RSA private key (cached per encrypted session key)
  * 2. Decrypt the message using the decrypted AES session key
  */
 public class HybridEncryption {
     private static final String TAG = "HybridEncryption";
-    private static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+
+    private static final SessionKeyCache sessionKeyCache = new SessionKeyCache();
 
     /**
      * Result class containing both encrypted message and encrypted session key
      */
     public static class EncryptedMessage {
-        private String encryptedData;      // Base64 encoded AES-encrypted message
-        private String encryptedSessionKey; // Base64 encoded RSA-encrypted AES key
+        private String encryptedData;      // AES-encrypted message, see AESUtils for formats
+        private String encryptedSessionKey; // RSA-encrypted AES key, WireCodec or legacy Base64
 
         public EncryptedMessage(String encryptedData, String encryptedSessionKey) {
             this.encryptedData = encryptedData;
@@ -49,9 +53,14 @@ public class HybridEncryption {
 
         /**
          * Combine into a single string for storage
-         * Format: encryptedSessionKey::encryptedData
+         * Format: one WireCodec frame with the session key and body as fields,
+         * or encryptedSessionKey::encryptedData for legacy Base64 parts
          */
         public String toStorageFormat() {
+            if (WireCodec.isCompact(encryptedSessionKey) && WireCodec.isCompact(encryptedData)) {
+                return WireCodec.encode(WireCodec.decodeSingle(encryptedSessionKey),
+                        WireCodec.decodeSingle(encryptedData));
+            }
             return encryptedSessionKey + "::" + encryptedData;
         }
 
@@ -59,6 +68,13 @@ public class HybridEncryption {
          * Parse from storage format
          */
         public static EncryptedMessage fromStorageFormat(String combined) {
+            if (WireCodec.isCompact(combined)) {
+                byte[][] fields = WireCodec.decode(combined);
+                if (fields.length != 2) {
+                    throw new IllegalArgumentException("Invalid encrypted message format");
+                }
+                return new EncryptedMessage(WireCodec.encode(fields[1]), WireCodec.encode(fields[0]));
+            }
             String[] parts = combined.split("::", 2);
             if (parts.length != 2) {
                 throw new IllegalArgumentException("Invalid encrypted message format");
@@ -67,6 +83,84 @@ public class HybridEncryption {
         }
     }
 
+    /**
+     * One AES-encrypted body shared by several recipients, with the session key
+     * wrapped separately for each recipient's RSA public key
+     */
+    public static class Envelope {
+        private final String encryptedData;
+        private final Map<String, String> encryptedSessionKeys;
+
+        public Envelope(String encryptedData, Map<String, String> encryptedSessionKeys) {
+            this.encryptedData = encryptedData;
+            this.encryptedSessionKeys = encryptedSessionKeys;
+        }
+
+        public String getEncryptedData() {
+            return encryptedData;
+        }
+
+        /**
+         * Wrapped session keys by recipient id
+         */
+        public Map<String, String> getEncryptedSessionKeys() {
+            return encryptedSessionKeys;
+        }
+
+        public String getEncryptedSessionKey(String recipientId) {
+            return encryptedSessionKeys.get(recipientId);
+        }
+
+        /**
+         * The envelope as seen by a single recipient, ready for decrypt()
+         */
+        public EncryptedMessage forRecipient(String recipientId) {
+            return new EncryptedMessage(encryptedData, encryptedSessionKeys.get(recipientId));
+        }
+    }
+
+    /**
+     * Encrypt a message once for several recipients
+     *
+     * The plaintext is AES-encrypted a single time; only the 32-byte session key
+     * is RSA-wrapped per recipient, so adding a recipient costs one RSA operation.
+     *
+     * @param plainText Message to encrypt
+     * @param recipientPublicKeys Public keys by recipient id
+     * @return Envelope with the shared body and a wrapped session key per recipient
+     */
+    public static Envelope encryptForRecipients(String plainText, Map<String, PublicKey> recipientPublicKeys) throws Exception {
+        if (plainText == null || plainText.isEmpty()) {
+            throw new IllegalArgumentException("Plain text cannot be null or empty");
+        }
+        if (recipientPublicKeys == null || recipientPublicKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient public key is required");
+        }
+
+        try {
+            SecretKey sessionKey = AESUtils.generateKey();
+            String encryptedMessage = AESUtils.encrypt(plainText, sessionKey);
+
+            Map<String, String> encryptedSessionKeys = new HashMap<>();
+            for (Map.Entry<String, PublicKey> recipient : recipientPublicKeys.entrySet()) {
+                if (recipient.getValue() == null) {
+                    throw new IllegalArgumentException("Missing public key for " + recipient.getKey());
+                }
+                String wrappedKey = encryptAESKeyWithRSA(sessionKey, recipient.getValue());
+                encryptedSessionKeys.put(recipient.getKey(), wrappedKey);
+                // The sender's own copy then decrypts without an RSA operation
+                sessionKeyCache.put(wrappedKey, sessionKey);
+            }
+            Log.d(TAG, "Message encrypted for " + encryptedSessionKeys.size() + " recipients");
+
+            return new Envelope(encryptedMessage, encryptedSessionKeys);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Hybrid encryption failed", e);
+            throw new Exception("Hybrid encryption failed: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Encrypt a message for a specific recipient
      * 
@@ -119,12 +213,14 @@ public class HybridEncryption {
         }
 
         try {
-            // Step 1: Decrypt the AES session key using RSA private key
-            SecretKey sessionKey = decryptAESKeyWithRSA(
-                encryptedMessage.getEncryptedSessionKey(), 
-                privateKey
-            );
-            Log.d(TAG, "Session key decrypted with RSA");
+            // Step 1: Decrypt the AES session key using RSA private key, unless already cached
+            String encryptedSessionKey = encryptedMessage.getEncryptedSessionKey();
+            SecretKey sessionKey = sessionKeyCache.get(encryptedSessionKey);
+            if (sessionKey == null) {
+                sessionKey = decryptAESKeyWithRSA(encryptedSessionKey, privateKey);
+                sessionKeyCache.put(encryptedSessionKey, sessionKey);
+                Log.d(TAG, "Session key decrypted with RSA");
+            }
 
             // Step 2: Decrypt the message using the session key
             String plainText = AESUtils.decrypt(encryptedMessage.getEncryptedData(), sessionKey);
@@ -138,17 +234,53 @@ public class HybridEncryption {
         }
     }
 
+    /**
+     * Cache of unwrapped session keys, exposed for hit/miss statistics
+     */
+    public static SessionKeyCache getSessionKeyCache() {
+        return sessionKeyCache;
+    }
+
+    /**
+     * Forget all unwrapped session keys (for logout or key reset)
+     */
+    public static void clearSessionKeyCache() {
+        sessionKeyCache.clear();
+    }
+
+    /**
+     * Wrap a long-lived AES key, such as a group key, for one RSA public key.
+     * Does not log; callers report failures.
+     */
+    public static String wrapKey(SecretKey key, PublicKey publicKey) throws Exception {
+        Cipher cipher = CryptoContext.cipher(RSA_TRANSFORMATION, publicKey);
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+
+        byte[] encryptedKey = cipher.doFinal(key.getEncoded());
+        return WireCodec.encode(encryptedKey);
+    }
+
+    /**
+     * Unwrap a key from wrapKey() with this device's private key.
+     * Does not log; callers report failures.
+     */
+    public static SecretKey unwrapKey(String wrappedKey, PrivateKey privateKey) throws Exception {
+        Cipher cipher = CryptoContext.cipher(RSA_TRANSFORMATION, privateKey);
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+
+        // Compact and legacy Base64 keys both decode here
+        byte[] encryptedKey = WireCodec.decodeSingle(wrappedKey);
+        byte[] decryptedKey = cipher.doFinal(encryptedKey);
+
+        return new SecretKeySpec(decryptedKey, "AES");
+    }
+
     /**
      * Encrypt an AES key using RSA public key
      */
     private static String encryptAESKeyWithRSA(SecretKey aesKey, PublicKey publicKey) throws Exception {
         try {
-            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-            
-            byte[] encryptedKey = cipher.doFinal(aesKey.getEncoded());
-            return Base64.encodeToString(encryptedKey, Base64.NO_WRAP);
-
+            return wrapKey(aesKey, publicKey);
         } catch (Exception e) {
             Log.e(TAG, "Failed to encrypt AES key with RSA", e);
             throw new Exception("Failed to encrypt AES key: " + e.getMessage(), e);
@@ -160,14 +292,7 @@ public class HybridEncryption {
      */
     private static SecretKey decryptAESKeyWithRSA(String encryptedKeyStr, PrivateKey privateKey) throws Exception {
         try {
-            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-            
-            byte[] encryptedKey = Base64.decode(encryptedKeyStr, Base64.NO_WRAP);
-            byte[] decryptedKey = cipher.doFinal(encryptedKey);
-
-            return AESUtils.stringToKey(Base64.encodeToString(decryptedKey, Base64.NO_WRAP));
-
+            return unwrapKey(encryptedKeyStr, privateKey);
         } catch (Exception e) {
             Log.e(TAG, "Failed to decrypt AES key with RSA", e);
             throw new Exception("Failed to decrypt AES key: " + e.getMessage(), e);
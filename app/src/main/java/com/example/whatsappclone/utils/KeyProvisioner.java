@@ -0,0 +1,188 @@
+package com.example.whatsappclone.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Single owner of this device's key pair setup
+ *
+ * Loading or generating the pair runs once on the crypto pool, however many
+ * screens ask for it; every caller gets the same result through its callback
+ * on the main thread. The public key is published to PublicKeys/<userId> once
+ * the user id is known, so sign-up can start generating while the form is
+ * still being filled in.
+ *
+ * All methods are called on the main thread.
+ */
+public class KeyProvisioner {
+    private static final String TAG = "KeyProvisioner";
+
+    public enum State {
+        IDLE,
+        PREPARING,
+        READY,
+        FAILED
+    }
+
+    private static volatile KeyProvisioner instance;
+
+    public static KeyProvisioner getInstance(Context context) {
+        if (instance == null) {
+            synchronized (KeyProvisioner.class) {
+                if (instance == null) {
+                    instance = new KeyProvisioner(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final List<CryptoExecutor.Callback<KeyPair>> waiting = new ArrayList<>();
+    private final Set<String> waitingUploads = new HashSet<>();
+    private final Set<String> published = new HashSet<>();
+    private State state = State.IDLE;
+    private KeyPair keyPair;
+    private Exception failure;
+    private volatile boolean generated;
+
+    private KeyProvisioner(Context context) {
+        this.context = context;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the key pair if it is ready, otherwise null
+     */
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * Start loading or generating the key pair in the background; repeated calls
+     * while it is in progress or done do nothing
+     */
+    public void prepare() {
+        if (state == State.PREPARING || state == State.READY) {
+            return;
+        }
+        state = State.PREPARING;
+        failure = null;
+
+        CryptoExecutor.submit(() -> {
+            if (RSAKeyManager.hasKeys(context)) {
+                PrivateKey privateKey = RSAKeyManager.loadPrivateKey(context);
+                PublicKey publicKey = RSAKeyManager.loadPublicKey(context);
+                if (privateKey != null && publicKey != null) {
+                    return new KeyPair(publicKey, privateKey);
+                }
+                Log.w(TAG, "Stored keys are unreadable, generating new ones");
+            }
+            generated = true;
+            return RSAKeyManager.createKeyPair(context);
+        }, new CryptoExecutor.Callback<KeyPair>() {
+            @Override
+            public void onResult(KeyPair result) {
+                keyPair = result;
+                state = State.READY;
+                Log.d(TAG, generated ? "Encryption keys generated" : "Encryption keys loaded");
+                for (String userId : waitingUploads) {
+                    upload(userId);
+                }
+                waitingUploads.clear();
+                deliver();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to set up encryption keys", e);
+                failure = e;
+                state = State.FAILED;
+                waitingUploads.clear();
+                deliver();
+            }
+        });
+    }
+
+    /**
+     * Make sure the signed-in user has keys and their public key is published.
+     * The callback runs once the keys are ready or have failed; pass null to
+     * only start the work. A failed attempt is retried.
+     */
+    public void ensureKeys(String userId, CryptoExecutor.Callback<KeyPair> callback) {
+        if (state == State.READY) {
+            upload(userId);
+            if (callback != null) {
+                callback.onResult(keyPair);
+            }
+            return;
+        }
+
+        waitingUploads.add(userId);
+        if (callback != null) {
+            waiting.add(callback);
+        }
+        prepare();
+    }
+
+    /**
+     * Publish the public key under the user's id once per process. A key generated
+     * here is written directly; an existing one only if the stored copy differs.
+     */
+    private void upload(String userId) {
+        if (userId == null || !published.add(userId)) {
+            return;
+        }
+        String publicKeyStr = RSAKeyManager.publicKeyToString(keyPair.getPublic());
+        DatabaseReference keyRef = FirebaseDatabase.getInstance().getReference(PublicKeyDirectory.NODE).child(userId);
+        if (generated) {
+            write(keyRef, userId, publicKeyStr);
+            return;
+        }
+        keyRef.get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                published.remove(userId);
+                return;
+            }
+            if (!publicKeyStr.equals(task.getResult().getValue(String.class))) {
+                write(keyRef, userId, publicKeyStr);
+            }
+        });
+    }
+
+    private void write(DatabaseReference keyRef, String userId, String publicKeyStr) {
+        keyRef.setValue(publicKeyStr)
+                .addOnSuccessListener(unused -> Log.d(TAG, "Public key published"))
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to publish public key", e);
+                    // Try again on the next ensureKeys()
+                    published.remove(userId);
+                });
+    }
+
+    private void deliver() {
+        List<CryptoExecutor.Callback<KeyPair>> callbacks = new ArrayList<>(waiting);
+        waiting.clear();
+        for (CryptoExecutor.Callback<KeyPair> callback : callbacks) {
+            if (state == State.READY) {
+                callback.onResult(keyPair);
+            } else {
+                callback.onError(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.whatsappclone.utils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Where this device's RSA key pair lives
+ *
+ * Public keys returned by a backend are plain software keys, so they can be
+ * exported and used with any Cipher; private keys may be opaque handles.
+ */
+public interface KeyStorage {
+
+    /**
+     * Create and persist a new key pair, replacing any existing one
+     */
+    KeyPair generate() throws GeneralSecurityException;
+
+    /**
+     * Persist a key pair generated elsewhere
+     *
+     * @throws UnsupportedOperationException if the backend cannot import keys
+     */
+    void save(KeyPair keyPair) throws GeneralSecurityException;
+
+    /**
+     * @return the stored private key, or null if there is none
+     */
+    PrivateKey loadPrivateKey() throws GeneralSecurityException;
+
+    /**
+     * @return the stored public key, or null if there is none
+     */
+    PublicKey loadPublicKey() throws GeneralSecurityException;
+
+    boolean hasKeys();
+
+    void clear();
+}
@@ -0,0 +1,97 @@
+package com.example.whatsappclone.utils;
+
+import com.example.whatsappclone.Models.MessageModel;
+
+/**
+ * How a stored message body is encoded, recorded in MessageModel's "encoding" field
+ *
+ * Writers set the marker, so readers pick the decoder from one field instead of
+ * guessing from the text. Rows written before the marker existed are classified
+ * once from their shape: a session key or envelope means hybrid, a "z:" or "v2:"
+ * header means GCM, and only a header-less value with the size and alphabet of a
+ * Base64 IV-plus-block can be legacy CBC; anything else is plaintext. Old
+ * plaintext can have those shapes too, so readers show an unmarked row that
+ * fails to decode as plaintext instead of dropping it; see isGuessed().
+ */
+public enum MessageEncoding {
+    PLAINTEXT(0),
+    // Base64 IV || ciphertext without a header, the first group chat format
+    AES_CBC(1),
+    // WireCodec compact frame or "v2:" Base64, see AESUtils
+    AES_GCM(2),
+    // Body encrypted with a per-message key wrapped for each recipient, see HybridEncryption
+    HYBRID(3);
+
+    // Base64 of a 16-byte IV and at least one 16-byte block
+    private static final int MIN_CBC_LENGTH = 44;
+
+    private final int code;
+
+    MessageEncoding(int code) {
+        this.code = code;
+    }
+
+    /**
+     * The value stored in MessageModel's encoding field
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * @return the encoding with this code, or null for one this version does not know
+     */
+    public static MessageEncoding fromCode(int code) {
+        for (MessageEncoding encoding : values()) {
+            if (encoding.code == code) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the message's encoding, or null if it is marked with an unknown one
+     */
+    public static MessageEncoding of(MessageModel model) {
+        if (model.getEncoding() != null) {
+            return fromCode(model.getEncoding());
+        }
+        if (model.getEncryptedSessionKey() != null || model.getEnvelopeId() != null) {
+            return HYBRID;
+        }
+        String message = model.getMessage();
+        if (message == null) {
+            return PLAINTEXT;
+        }
+        if (message.startsWith(WireCodec.PREFIX) || message.startsWith(AESUtils.GCM_PREFIX)) {
+            return AES_GCM;
+        }
+        return looksLikeCbc(message) ? AES_CBC : PLAINTEXT;
+    }
+
+    /**
+     * @return true if the message's encoding is only guessed from the shape of its
+     * body, so it may be old plaintext that happens to look encrypted
+     */
+    public static boolean isGuessed(MessageModel model) {
+        return model.getEncoding() == null && model.getEncryptedSessionKey() == null
+                && model.getEnvelopeId() == null && model.getMessage() != null;
+    }
+
+    private static boolean looksLikeCbc(String message) {
+        int length = message.length();
+        if (length < MIN_CBC_LENGTH || length % 4 != 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            boolean base64 = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '+' || c == '/' || (c == '=' && i >= length - 2);
+            if (!base64) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.whatsappclone.utils;
+
+import android.util.Log;
+
+import com.example.whatsappclone.Models.MessageModel;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-recipient message storage
+ *
+ * The encrypted body is written once to envelopes/<id>; every recipient's room
+ * gets a small entry with the session key wrapped for that recipient and the
+ * envelope id. Readers fetch the referenced bodies before decrypting.
+ */
+public class MessageEnvelopes {
+    private static final String TAG = "MessageEnvelopes";
+    public static final String NODE = "envelopes";
+
+    /**
+     * Receives envelope bodies by envelope id; missing envelopes are absent
+     */
+    public interface ResolveCallback {
+        void onResolved(Map<String, String> bodies);
+    }
+
+    /**
+     * Add an envelope and a room entry per recipient to a multi-path update.
+     * Room entries are plain maps with MessageModel's fields, so the update can be
+     * kept in the OutboundQueue's journal.
+     *
+     * @param roomsByRecipient room path (e.g. "chats/" + room) by recipient id
+     */
+    public static void put(Map<String, Object> updates, String envelopeId, String senderId,
+                           long timestamp, HybridEncryption.Envelope envelope,
+                           Map<String, String> roomsByRecipient) {
+        String path = NODE + "/" + envelopeId + "/";
+        updates.put(path + "body", envelope.getEncryptedData());
+        updates.put(path + "senderId", senderId);
+        updates.put(path + "timestamp", timestamp);
+
+        for (Map.Entry<String, String> room : roomsByRecipient.entrySet()) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("uid", senderId);
+            entry.put("encryptedSessionKey", envelope.getEncryptedSessionKey(room.getKey()));
+            entry.put("envelopeId", envelopeId);
+            entry.put("encoding", MessageEncoding.HYBRID.code());
+            entry.put("timestamp", timestamp);
+            updates.put(room.getValue() + "/" + envelopeId, entry);
+        }
+    }
+
+    /**
+     * Fetch the bodies referenced by a set of room entries, in parallel.
+     * Entries that carry their own body are skipped; the callback runs on the main thread.
+     */
+    public static void resolve(DatabaseReference envelopes, Iterable<DataSnapshot> snapshots, ResolveCallback callback) {
+        List<String> envelopeIds = new ArrayList<>();
+        for (DataSnapshot snap : snapshots) {
+            if (!snap.hasChild("message") && snap.hasChild("envelopeId")) {
+                envelopeIds.add(snap.child("envelopeId").getValue(String.class));
+            }
+        }
+        fetch(envelopes, envelopeIds, callback);
+    }
+
+    /**
+     * Fetch one envelope's body, e.g. for a conversation summary; the callback runs
+     * on the main thread
+     */
+    public static void resolve(DatabaseReference envelopes, String envelopeId, ResolveCallback callback) {
+        fetch(envelopes, Collections.singletonList(envelopeId), callback);
+    }
+
+    private static void fetch(DatabaseReference envelopes, List<String> envelopeIds, ResolveCallback callback) {
+        if (envelopeIds.isEmpty()) {
+            callback.onResolved(Collections.emptyMap());
+            return;
+        }
+
+        Map<String, String> bodies = new HashMap<>();
+        int[] pending = {envelopeIds.size()};
+        for (String envelopeId : envelopeIds) {
+            envelopes.child(envelopeId).child("body").get().addOnCompleteListener(task -> {
+                if (task.isSuccessful() && task.getResult() != null) {
+                    String body = task.getResult().getValue(String.class);
+                    if (body != null) {
+                        bodies.put(envelopeId, body);
+                    }
+                } else {
+                    Log.e(TAG, "Failed to fetch envelope " + envelopeId, task.getException());
+                }
+                if (--pending[0] == 0) {
+                    callback.onResolved(bodies);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fill in the body of a room entry that references an envelope
+     *
+     * @return false if the entry references an envelope that could not be fetched
+     */
+    public static boolean attachBody(MessageModel model, Map<String, String> bodies) {
+        if (model.getMessage() != null || model.getEnvelopeId() == null) {
+            return true;
+        }
+        String body = bodies.get(model.getEnvelopeId());
+        if (body == null) {
+            return false;
+        }
+        model.setMessage(body);
+        return true;
+    }
+}
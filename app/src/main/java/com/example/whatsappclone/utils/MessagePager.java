@@ -0,0 +1,777 @@
+package com.example.whatsappclone.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.whatsappclone.Models.MessageModel;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Windowed, paginated loading of a chat room ordered by timestamp
+ *
+ * How it works:
+ * 1. Load the last page of messages when the room is opened
+ * 2. Listen for new messages after the newest loaded one (the live tail)
+ * 3. Load older/newer pages as the RecyclerView scrolls towards either end
+ * 4. Evict pages far away from the viewport so the window stays bounded
+ *
+ * Pages are read from the local MessageStore first and only fetched from
+ * Firebase when the store runs out; everything fetched is written back, so
+ * the network and the Decoder only see messages that are not stored yet.
+ * A message the Decoder cannot decode yet is stored without text: it keeps its
+ * place, so syncing does not skip it, and is fetched and decoded again each
+ * time it is loaded from the store until it succeeds.
+ *
+ * Messages that reference a shared envelope (see MessageEnvelopes) have their
+ * bodies fetched in parallel before decoding.
+ *
+ * Only the tail is live; older pages are loaded once. Messages are parsed,
+ * decoded and stored on the CryptoExecutor, so the Decoder may do expensive work.
+ *
+ * The window is published to the RecyclerView's ListAdapter as a fresh snapshot
+ * after every change and diffed in the background. Positions taken from the
+ * layout manager only match the window once the latest snapshot is committed.
+ */
+public class MessagePager {
+    private static final String TAG = "MessagePager";
+    private static final String ORDER_BY = "timestamp";
+
+    public static final int DEFAULT_PAGE_SIZE = 30;
+    private static final int MAX_PAGES = 4;
+    private static final int PREFETCH_DISTANCE = 5;
+
+    /**
+     * Turns a raw message into a displayable one (e.g. decrypts it in place).
+     * Called on a background thread.
+     */
+    public interface Decoder {
+        /**
+         * @return false to drop the message for good, e.g. one not meant for this user
+         * @throws Exception if the message may decode later, e.g. while keys are being set up
+         */
+        boolean decode(MessageModel model) throws Exception;
+    }
+
+    private static final Comparator<MessageModel> ORDER = new Comparator<MessageModel>() {
+        @Override
+        public int compare(MessageModel a, MessageModel b) {
+            long t1 = timestampOf(a);
+            long t2 = timestampOf(b);
+            if (t1 != t2) {
+                return t1 < t2 ? -1 : 1;
+            }
+            return a.getMessageId().compareTo(b.getMessageId());
+        }
+    };
+
+    private final DatabaseReference room;
+    private final DatabaseReference envelopes;
+    private final String roomId;
+    private final MessageStore store;
+    private final ArrayList<MessageModel> messages = new ArrayList<>();
+    private final Decoder decoder;
+    private final int pageSize;
+    private final int maxItems;
+
+    private RecyclerView recyclerView;
+    private ListAdapter<MessageModel, ?> adapter;
+    private LinearLayoutManager layoutManager;
+
+    private boolean hasOlder = true;
+    private boolean hasNewer = false;
+    private boolean loading = false;
+    private boolean closed = false;
+
+    private int submitted = 0;
+    private int committed = 0;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    private Query tailQuery;
+    private ChildEventListener tailListener;
+    private final Set<String> removedWhileDecoding = new HashSet<>();
+    // Messages seen this session that the Decoder could not decode yet; added from crypto threads
+    private final Set<String> undecodedIds = ConcurrentHashMap.newKeySet();
+    // Local messages added before the first page arrived
+    private final List<MessageModel> earlyLocals = new ArrayList<>();
+    private boolean firstPageLoaded = false;
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+            onViewportChanged();
+        }
+    };
+
+    /**
+     * @param room    Firebase node holding the room's messages
+     * @param roomId  key of the room in the local store, e.g. "chats/" + senderRoom
+     * @param store   local store to read from first, or null to always use the network
+     */
+    public MessagePager(DatabaseReference room, String roomId, MessageStore store, Decoder decoder) {
+        this(room, roomId, store, decoder, DEFAULT_PAGE_SIZE);
+    }
+
+    public MessagePager(DatabaseReference room, String roomId, MessageStore store,
+                        Decoder decoder, int pageSize) {
+        this.room = room;
+        this.envelopes = room.getRoot().child(MessageEnvelopes.NODE);
+        this.roomId = roomId;
+        this.store = store;
+        this.decoder = decoder;
+        this.pageSize = pageSize;
+        this.maxItems = pageSize * MAX_PAGES;
+    }
+
+    /**
+     * Bind to the RecyclerView showing the messages and load the newest page.
+     * The RecyclerView's adapter must be a ListAdapter of MessageModel.
+     */
+    @SuppressWarnings("unchecked")
+    public void attach(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+        this.adapter = (ListAdapter<MessageModel, ?>) recyclerView.getAdapter();
+        this.layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+        recyclerView.addOnScrollListener(scrollListener);
+
+        loading = true;
+        if (store == null) {
+            loadLatestFromNetwork();
+            return;
+        }
+
+        // Render what we already have, then sync only the messages after it
+        CryptoExecutor.submit(() -> store.loadLatest(roomId, pageSize), new StoreCallback() {
+            @Override
+            void onStored(List<MessageModel> local) {
+                if (local.isEmpty()) {
+                    loadLatestFromNetwork();
+                    return;
+                }
+                loading = false;
+                addFirstPage(decodedOnly(local));
+                publish(MessagePager.this::scrollToBottom);
+                attachTail();
+            }
+
+            @Override
+            void onStoreFailed() {
+                loadLatestFromNetwork();
+            }
+        });
+    }
+
+    private void loadLatestFromNetwork() {
+        room.orderByChild(ORDER_BY).limitToLast(pageSize)
+                .addListenerForSingleValueEvent(new PageListener() {
+                    @Override
+                    void onPage(List<MessageModel> page, int fetched) {
+                        hasOlder = fetched >= pageSize;
+                        addFirstPage(page);
+                        publish(MessagePager.this::scrollToBottom);
+                        attachTail();
+                    }
+                });
+    }
+
+    private void addFirstPage(List<MessageModel> page) {
+        firstPageLoaded = true;
+        messages.addAll(page);
+        for (MessageModel model : earlyLocals) {
+            if (indexOf(model.getMessageId()) < 0) {
+                messages.add(insertionPoint(model), model);
+            }
+        }
+        earlyLocals.clear();
+    }
+
+    /**
+     * Show a message that exists only on this device so far, e.g. one waiting in the
+     * OutboundQueue. Its copy from the database is ignored when it arrives.
+     */
+    public void addLocal(MessageModel model) {
+        if (!firstPageLoaded) {
+            earlyLocals.add(model);
+            return;
+        }
+        if (closed || indexOf(model.getMessageId()) >= 0) {
+            return;
+        }
+        int position = insertionPoint(model);
+        messages.add(position, model);
+        publish(position == messages.size() - 1 ? this::scrollToBottom : null);
+    }
+
+    /**
+     * Decode a message that exists only on this device, in the form its room stores
+     * it, and show it like addLocal(); one that cannot be decoded yet shows once
+     * its copy from the database arrives
+     */
+    public void decodeLocal(MessageModel model) {
+        CryptoExecutor.submit(() -> decoder.decode(model) ? model : null, new CryptoExecutor.Callback<MessageModel>() {
+            @Override
+            public void onResult(MessageModel decoded) {
+                if (decoded != null) {
+                    addLocal(decoded);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "Queued message " + model.getMessageId() + " cannot be decoded yet: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Decode again the messages seen so far that could not be decoded yet, e.g. once
+     * the key they need has arrived
+     */
+    public void retryUndecoded() {
+        if (closed) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(undecodedIds);
+        undecodedIds.removeAll(ids);
+        for (String messageId : ids) {
+            redecode(messageId);
+        }
+    }
+
+    /**
+     * Detach the live tail; call from onDestroy
+     */
+    public void close() {
+        closed = true;
+        detachTail();
+        if (recyclerView != null) {
+            recyclerView.removeOnScrollListener(scrollListener);
+        }
+    }
+
+    /**
+     * Remove a message from the window and the local store, e.g. after it has been
+     * deleted from an older page that is not live
+     */
+    public void remove(String messageId) {
+        int position = indexOf(messageId);
+        if (position >= 0) {
+            messages.remove(position);
+            publish(null);
+        }
+        if (store != null) {
+            CryptoExecutor.submit(() -> {
+                store.delete(roomId, messageId);
+                return messageId;
+            }, new CryptoExecutor.Callback<String>() {
+                @Override
+                public void onResult(String deletedId) {
+                    Log.d(TAG, "Removed " + deletedId + " from local store");
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to remove message from local store", e);
+                }
+            });
+        }
+    }
+
+    private void onViewportChanged() {
+        if (loading || closed || messages.isEmpty() || committed != submitted) {
+            return;
+        }
+        trim();
+
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        if (hasOlder && first <= PREFETCH_DISTANCE) {
+            loadOlder();
+        } else if (hasNewer && last >= messages.size() - 1 - PREFETCH_DISTANCE) {
+            loadNewer();
+        }
+    }
+
+    private void loadOlder() {
+        MessageModel oldest = messages.get(0);
+        if (oldest.getTimestamp() == null) {
+            // Legacy messages without a timestamp sort first, nothing older can exist
+            hasOlder = false;
+            return;
+        }
+
+        loading = true;
+        if (store == null) {
+            loadOlderFromNetwork(oldest);
+            return;
+        }
+
+        CryptoExecutor.submit(() -> store.loadBefore(roomId, oldest.getTimestamp(), oldest.getMessageId(), pageSize),
+                new StoreCallback() {
+                    @Override
+                    void onStored(List<MessageModel> local) {
+                        if (local.size() < pageSize) {
+                            // Store ran out, the network page is a superset of what is left locally
+                            loadOlderFromNetwork(oldest);
+                            return;
+                        }
+                        loading = false;
+                        messages.addAll(0, decodedOnly(local));
+                        publish(MessagePager.this::trim);
+                    }
+
+                    @Override
+                    void onStoreFailed() {
+                        loadOlderFromNetwork(oldest);
+                    }
+                });
+    }
+
+    private void loadOlderFromNetwork(MessageModel oldest) {
+        room.orderByChild(ORDER_BY)
+                .endBefore(oldest.getTimestamp(), oldest.getMessageId())
+                .limitToLast(pageSize)
+                .addListenerForSingleValueEvent(new PageListener() {
+                    @Override
+                    void onPage(List<MessageModel> page, int fetched) {
+                        hasOlder = fetched >= pageSize;
+                        messages.addAll(0, page);
+                        publish(MessagePager.this::trim);
+                    }
+                });
+    }
+
+    private void loadNewer() {
+        MessageModel newest = messages.get(messages.size() - 1);
+
+        loading = true;
+        if (store == null) {
+            loadNewerFromNetwork(newest);
+            return;
+        }
+
+        CryptoExecutor.submit(() -> store.loadAfter(roomId, timestampOf(newest), newest.getMessageId(), pageSize),
+                new StoreCallback() {
+                    @Override
+                    void onStored(List<MessageModel> local) {
+                        if (local.size() < pageSize) {
+                            loadNewerFromNetwork(newest);
+                            return;
+                        }
+                        loading = false;
+                        messages.addAll(decodedOnly(local));
+                        publish(MessagePager.this::trim);
+                    }
+
+                    @Override
+                    void onStoreFailed() {
+                        loadNewerFromNetwork(newest);
+                    }
+                });
+    }
+
+    private void loadNewerFromNetwork(MessageModel newest) {
+        room.orderByChild(ORDER_BY)
+                .startAfter(timestampOf(newest), newest.getMessageId())
+                .limitToFirst(pageSize)
+                .addListenerForSingleValueEvent(new PageListener() {
+                    @Override
+                    void onPage(List<MessageModel> page, int fetched) {
+                        messages.addAll(page);
+                        if (fetched < pageSize) {
+                            // Reached the newest message, go live again
+                            hasNewer = false;
+                            attachTail();
+                        }
+                        publish(MessagePager.this::trim);
+                    }
+                });
+    }
+
+    /**
+     * Evict a whole page from the end furthest away from the viewport.
+     * Every load adds at most one page, so evicting one page keeps the window bounded.
+     */
+    private void trim() {
+        if (messages.size() <= maxItems || committed != submitted) {
+            return;
+        }
+
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int above = first;
+        int below = messages.size() - 1 - last;
+        if (above >= below && above > pageSize) {
+            messages.subList(0, pageSize).clear();
+            publish(null);
+            hasOlder = true;
+        } else if (below > pageSize) {
+            int start = messages.size() - pageSize;
+            messages.subList(start, messages.size()).clear();
+            publish(null);
+            detachTail();
+            hasNewer = true;
+        }
+    }
+
+    private void attachTail() {
+        if (closed || tailListener != null) {
+            return;
+        }
+
+        Query query = room.orderByChild(ORDER_BY);
+        if (!messages.isEmpty()) {
+            MessageModel newest = messages.get(messages.size() - 1);
+            query = newest.getTimestamp() != null
+                    ? query.startAfter(newest.getTimestamp(), newest.getMessageId())
+                    : query.startAt(0);
+        }
+
+        tailQuery = query;
+        tailListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+                decodeInBackground(snapshot, new DecodeCallback() {
+                    @Override
+                    public void onResult(MessageModel model) {
+                        if (!closed && model != null) {
+                            insertDecoded(model);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+                decodeInBackground(snapshot, new DecodeCallback() {
+                    @Override
+                    public void onResult(MessageModel model) {
+                        int position = indexOf(snapshot.getKey());
+                        if (closed || position < 0 || model == null) {
+                            return;
+                        }
+                        messages.set(position, model);
+                        publish(null);
+                    }
+                });
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                if (indexOf(snapshot.getKey()) < 0) {
+                    // Still being decoded, drop it once the result arrives
+                    removedWhileDecoding.add(snapshot.getKey());
+                }
+                remove(snapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
+                // Position is derived from timestamp on insert, nothing to do
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Tail listener cancelled: " + error.getMessage());
+            }
+        };
+        tailQuery.addChildEventListener(tailListener);
+    }
+
+    /**
+     * Put a message decoded on its own into the window, unless it belongs to a page
+     * that is not loaded; it is shown with that page instead
+     */
+    private void insertDecoded(MessageModel model) {
+        if (indexOf(model.getMessageId()) >= 0 || removedWhileDecoding.remove(model.getMessageId())) {
+            return;
+        }
+        // Decoding runs in parallel, so insert by timestamp rather than arrival order
+        int position = insertionPoint(model);
+        if (!messages.isEmpty() && ((position == 0 && hasOlder) || (position == messages.size() && hasNewer))) {
+            return;
+        }
+        boolean atBottom = isAtBottom();
+        messages.add(position, model);
+
+        // Follow the conversation only if the user was already reading the newest messages
+        boolean follow = atBottom && position == messages.size() - 1;
+        publish(follow ? MessagePager.this::scrollToBottom : null);
+    }
+
+    /**
+     * @return the stored messages that have text; the others are fetched and decoded again
+     */
+    private List<MessageModel> decodedOnly(List<MessageModel> local) {
+        List<MessageModel> decoded = new ArrayList<>(local.size());
+        for (MessageModel model : local) {
+            if (model.getMessage() != null) {
+                decoded.add(model);
+            } else {
+                redecode(model.getMessageId());
+            }
+        }
+        return decoded;
+    }
+
+    private void redecode(String messageId) {
+        room.child(messageId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (closed) {
+                    return;
+                }
+                if (!snapshot.exists()) {
+                    // Deleted since it was stored
+                    remove(messageId);
+                    return;
+                }
+                decodeInBackground(snapshot, new DecodeCallback() {
+                    @Override
+                    public void onResult(MessageModel model) {
+                        if (!closed && model != null) {
+                            insertDecoded(model);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Failed to refetch message " + messageId + ": " + error.getMessage());
+            }
+        });
+    }
+
+    private void detachTail() {
+        if (tailQuery != null && tailListener != null) {
+            tailQuery.removeEventListener(tailListener);
+        }
+        tailQuery = null;
+        tailListener = null;
+    }
+
+    /**
+     * Parse and decode a message; runs on a crypto worker thread
+     *
+     * @param undecoded receives a copy without text of a message that cannot be decoded yet
+     * @return the decoded message, or null if it is dropped or not decoded yet
+     */
+    private MessageModel read(DataSnapshot snap, Map<String, String> bodies, List<MessageModel> undecoded) {
+        MessageModel model;
+        try {
+            model = snap.getValue(MessageModel.class);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to parse message " + snap.getKey(), e);
+            return null;
+        }
+        if (model == null) {
+            return null;
+        }
+        model.setMessageId(snap.getKey());
+        MessageModel placeholder = new MessageModel(model.getUid(), null, model.getTimestamp());
+        placeholder.setMessageId(model.getMessageId());
+        if (!MessageEnvelopes.attachBody(model, bodies)) {
+            Log.w(TAG, "Envelope missing for message " + snap.getKey());
+            undecoded.add(placeholder);
+            undecodedIds.add(snap.getKey());
+            return null;
+        }
+        try {
+            return decoder.decode(model) ? model : null;
+        } catch (Exception e) {
+            Log.w(TAG, "Message " + snap.getKey() + " cannot be decoded yet: " + e.getMessage());
+            undecoded.add(placeholder);
+            undecodedIds.add(snap.getKey());
+            return null;
+        }
+    }
+
+    private void decodeInBackground(DataSnapshot snap, DecodeCallback callback) {
+        MessageEnvelopes.resolve(envelopes, Collections.singletonList(snap), bodies ->
+                CryptoExecutor.submit(() -> {
+                    List<MessageModel> undecoded = new ArrayList<>(1);
+                    MessageModel model = read(snap, bodies, undecoded);
+                    if (store != null) {
+                        if (model != null) {
+                            store.upsert(roomId, model);
+                        } else if (undecoded.isEmpty()) {
+                            // Dropped for good; forget any place it held
+                            store.delete(roomId, snap.getKey());
+                        } else {
+                            store.keepUndecoded(roomId, undecoded);
+                        }
+                    }
+                    return model;
+                }, callback));
+    }
+
+    private static long timestampOf(MessageModel model) {
+        return model.getTimestamp() != null ? model.getTimestamp() : 0L;
+    }
+
+    private int insertionPoint(MessageModel model) {
+        int index = Collections.binarySearch(messages, model, ORDER);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private int indexOf(String messageId) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).getMessageId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hand a snapshot of the window to the adapter. Runs onCommitted once the
+     * adapter shows it, or a later snapshot if this one is superseded while diffing.
+     */
+    private void publish(Runnable onCommitted) {
+        if (onCommitted != null) {
+            afterCommit.add(onCommitted);
+        }
+        final int generation = ++submitted;
+        adapter.submitList(new ArrayList<>(messages), () -> {
+            if (generation != submitted) {
+                return;
+            }
+            committed = generation;
+            List<Runnable> pending = new ArrayList<>(afterCommit);
+            afterCommit.clear();
+            if (!closed) {
+                for (Runnable runnable : pending) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    private boolean isAtBottom() {
+        return adapter.getItemCount() == 0
+                || layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - 1;
+    }
+
+    private void scrollToBottom() {
+        if (adapter.getItemCount() > 0) {
+            recyclerView.scrollToPosition(adapter.getItemCount() - 1);
+        }
+    }
+
+    /**
+     * Result of a local store read; failures fall back to the network
+     */
+    private abstract class StoreCallback implements CryptoExecutor.Callback<List<MessageModel>> {
+        abstract void onStored(List<MessageModel> local);
+
+        void onStoreFailed() {
+        }
+
+        @Override
+        public void onResult(List<MessageModel> local) {
+            if (closed) {
+                loading = false;
+                return;
+            }
+            onStored(local);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "Local store access failed", e);
+            if (!closed) {
+                onStoreFailed();
+            }
+        }
+    }
+
+    private abstract static class DecodeCallback implements CryptoExecutor.Callback<MessageModel> {
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "Failed to decode message", e);
+        }
+    }
+
+    /**
+     * Single-value listener that decodes a page of messages in the background
+     * and hands it back in timestamp order
+     */
+    private abstract class PageListener implements ValueEventListener {
+        abstract void onPage(List<MessageModel> page, int fetched);
+
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            if (closed) {
+                loading = false;
+                return;
+            }
+
+            final int fetched = (int) snapshot.getChildrenCount();
+            MessageEnvelopes.resolve(envelopes, snapshot.getChildren(), bodies -> decodePage(snapshot, fetched, bodies));
+        }
+
+        private void decodePage(DataSnapshot snapshot, int fetched, Map<String, String> bodies) {
+            CryptoExecutor.submit(() -> {
+                List<MessageModel> page = new ArrayList<>(fetched);
+                List<MessageModel> undecoded = new ArrayList<>();
+                for (DataSnapshot snap : snapshot.getChildren()) {
+                    MessageModel model = read(snap, bodies, undecoded);
+                    if (model != null) {
+                        page.add(model);
+                    }
+                }
+                if (store != null) {
+                    store.upsert(roomId, page);
+                    store.keepUndecoded(roomId, undecoded);
+                }
+                return page;
+            }, new CryptoExecutor.Callback<List<MessageModel>>() {
+                @Override
+                public void onResult(List<MessageModel> page) {
+                    loading = false;
+                    if (!closed) {
+                        onPage(page, fetched);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    loading = false;
+                    Log.e(TAG, "Failed to decode page", e);
+                }
+            });
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            loading = false;
+            Log.e(TAG, "Failed to load page: " + error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.whatsappclone.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.example.whatsappclone.Models.MessageModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local SQLite copy of decoded chat messages, keyed by room and message id
+ *
+ * Chats render from this store first and only fetch messages from Firebase
+ * that are missing locally, so a cold open is a disk read instead of a full
+ * download and decrypt of the room.
+ *
+ * A row without a body holds the place of a message that could not be decoded
+ * yet, e.g. while keys were still being set up. It keeps syncing from skipping
+ * the message, and readers decode it again instead of showing it.
+ *
+ * All methods do disk I/O; call them from a background thread.
+ */
+public class MessageStore extends SQLiteOpenHelper {
+    private static final String TAG = "MessageStore";
+    private static final String DATABASE_NAME = "messages.db";
+    // 2: placeholder text of failed decryptions is no longer stored; upgrading drops it
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String COL_ROOM = "room";
+    private static final String COL_MESSAGE_ID = "message_id";
+    private static final String COL_UID = "uid";
+    private static final String COL_BODY = "body";
+    private static final String COL_TIMESTAMP = "timestamp";
+
+    private static final String[] COLUMNS = {COL_MESSAGE_ID, COL_UID, COL_BODY, COL_TIMESTAMP};
+
+    private static volatile MessageStore instance;
+
+    public static MessageStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MessageStore.class) {
+                if (instance == null) {
+                    instance = new MessageStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private MessageStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COL_ROOM + " TEXT NOT NULL, "
+                + COL_MESSAGE_ID + " TEXT NOT NULL, "
+                + COL_UID + " TEXT, "
+                + COL_BODY + " TEXT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + COL_ROOM + ", " + COL_MESSAGE_ID + "))");
+        db.execSQL("CREATE INDEX idx_messages_room_timestamp ON " + TABLE_MESSAGES
+                + " (" + COL_ROOM + ", " + COL_TIMESTAMP + ", " + COL_MESSAGE_ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything here can be refetched from Firebase
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
+        onCreate(db);
+    }
+
+    /**
+     * Newest messages of a room, in ascending timestamp order
+     */
+    public List<MessageModel> loadLatest(String room, int limit) {
+        return queryDescending(COL_ROOM + " = ?", new String[]{room}, limit);
+    }
+
+    /**
+     * Messages strictly before the given one, in ascending timestamp order
+     */
+    public List<MessageModel> loadBefore(String room, long timestamp, String messageId, int limit) {
+        String ts = String.valueOf(timestamp);
+        return queryDescending(
+                COL_ROOM + " = ? AND (" + COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_MESSAGE_ID + " < ?))",
+                new String[]{room, ts, ts, messageId}, limit);
+    }
+
+    /**
+     * Messages strictly after the given one, in ascending timestamp order
+     */
+    public List<MessageModel> loadAfter(String room, long timestamp, String messageId, int limit) {
+        String ts = String.valueOf(timestamp);
+        List<MessageModel> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, COLUMNS,
+                COL_ROOM + " = ? AND (" + COL_TIMESTAMP + " > ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_MESSAGE_ID + " > ?))",
+                new String[]{room, ts, ts, messageId}, null, null,
+                COL_TIMESTAMP + " ASC, " + COL_MESSAGE_ID + " ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                result.add(fromCursor(cursor));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The newest decoded message of a room, or null if there is none yet
+     */
+    public MessageModel latest(String room) {
+        List<MessageModel> latest = queryDescending(COL_ROOM + " = ? AND " + COL_BODY + " IS NOT NULL",
+                new String[]{room}, 1);
+        return latest.isEmpty() ? null : latest.get(0);
+    }
+
+    public void upsert(String room, List<MessageModel> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (MessageModel model : messages) {
+                values.clear();
+                values.put(COL_ROOM, room);
+                values.put(COL_MESSAGE_ID, model.getMessageId());
+                values.put(COL_UID, model.getUid());
+                values.put(COL_BODY, model.getMessage());
+                values.put(COL_TIMESTAMP, model.getTimestamp() != null ? model.getTimestamp() : 0L);
+                db.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to store messages for " + room, e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void upsert(String room, MessageModel message) {
+        upsert(room, Collections.singletonList(message));
+    }
+
+    /**
+     * Hold the place of messages that could not be decoded yet, without a body.
+     * A message already stored with its text keeps it.
+     */
+    public void keepUndecoded(String room, List<MessageModel> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (MessageModel model : messages) {
+                values.clear();
+                values.put(COL_ROOM, room);
+                values.put(COL_MESSAGE_ID, model.getMessageId());
+                values.put(COL_UID, model.getUid());
+                values.putNull(COL_BODY);
+                values.put(COL_TIMESTAMP, model.getTimestamp() != null ? model.getTimestamp() : 0L);
+                db.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to store undecoded messages for " + room, e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void delete(String room, String messageId) {
+        getWritableDatabase().delete(TABLE_MESSAGES,
+                COL_ROOM + " = ? AND " + COL_MESSAGE_ID + " = ?", new String[]{room, messageId});
+    }
+
+    /**
+     * Remove all stored messages (for logout)
+     */
+    public void clear() {
+        getWritableDatabase().delete(TABLE_MESSAGES, null, null);
+        Log.d(TAG, "Local message store cleared");
+    }
+
+    private List<MessageModel> queryDescending(String selection, String[] args, int limit) {
+        List<MessageModel> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, COLUMNS, selection, args,
+                null, null, COL_TIMESTAMP + " DESC, " + COL_MESSAGE_ID + " DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                result.add(fromCursor(cursor));
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static MessageModel fromCursor(Cursor cursor) {
+        MessageModel model = new MessageModel(cursor.getString(1), cursor.getString(2), cursor.getLong(3));
+        model.setMessageId(cursor.getString(0));
+        return model;
+    }
+}
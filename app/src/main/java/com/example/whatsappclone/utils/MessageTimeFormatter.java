@@ -0,0 +1,154 @@
+package com.example.whatsappclone.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Formats message times and day separators for the chat list
+ *
+ * SimpleDateFormat is expensive to create and not thread-safe, so each thread
+ * gets its own instances, and formatted times are cached per minute since
+ * every message sent within the same minute renders the same string.
+ * Both capture the locale and time zone they were made with, so they are
+ * thrown away when either changes; see watchChanges().
+ */
+public class MessageTimeFormatter {
+    private static final long MINUTE_MS = 60_000L;
+    private static final int MAX_CACHED_MINUTES = 512;
+
+    // Bumped by clearCache(); a thread's formats from an older generation are rebuilt
+    private static volatile int generation;
+    private static final AtomicBoolean watching = new AtomicBoolean();
+
+    private static final ThreadLocal<Formats> FORMATS = new ThreadLocal<>();
+
+    private static class Formats {
+        final int generation;
+        final SimpleDateFormat time = new SimpleDateFormat("h:mm a", Locale.getDefault());
+        final SimpleDateFormat day = new SimpleDateFormat("EEEE, d MMM yyyy", Locale.getDefault());
+        final Calendar calendar = Calendar.getInstance();
+
+        Formats(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private static final Map<Long, String> timeCache = new LinkedHashMap<Long, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > MAX_CACHED_MINUTES;
+        }
+    };
+
+    /**
+     * Time of day such as "4:05 PM", or an empty string for messages without a timestamp
+     */
+    public static String formatTime(Long timestamp) {
+        if (timestamp == null) {
+            return "";
+        }
+
+        long minute = Math.floorDiv(timestamp, MINUTE_MS);
+        synchronized (timeCache) {
+            String cached = timeCache.get(minute);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Formats formats = formats();
+        String formatted = formats.time.format(new Date(minute * MINUTE_MS));
+        synchronized (timeCache) {
+            // Not cached if the locale or zone changed while formatting
+            if (formats.generation == generation) {
+                timeCache.put(minute, formatted);
+            }
+        }
+        return formatted;
+    }
+
+    /**
+     * Local calendar day of a timestamp as yyyymmdd, for comparing two messages' days
+     */
+    public static int dayKey(Long timestamp) {
+        if (timestamp == null) {
+            return 0;
+        }
+        Calendar calendar = formats().calendar;
+        calendar.setTimeInMillis(timestamp);
+        return calendar.get(Calendar.YEAR) * 10000
+                + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Day separator text: "Today", "Yesterday" or the full date
+     */
+    public static String formatDay(Long timestamp) {
+        if (timestamp == null) {
+            return "";
+        }
+
+        int day = dayKey(timestamp);
+        long now = System.currentTimeMillis();
+        if (day == dayKey(now)) {
+            return "Today";
+        }
+        Formats formats = formats();
+        Calendar calendar = formats.calendar;
+        calendar.setTimeInMillis(now);
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        if (day == dayKey(calendar.getTimeInMillis())) {
+            return "Yesterday";
+        }
+        return formats.day.format(new Date(timestamp));
+    }
+
+    /**
+     * Forget cached strings and formats, e.g. after the locale or the time zone changed
+     */
+    public static void clearCache() {
+        synchronized (timeCache) {
+            generation++;
+            timeCache.clear();
+        }
+    }
+
+    /**
+     * Clear the cache whenever the time zone or the locale changes; only the first call registers
+     */
+    public static void watchChanges(Context context) {
+        if (!watching.compareAndSet(false, true)) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        // The framework updates the process's default zone and locale before these are delivered
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                clearCache();
+            }
+        }, filter);
+    }
+
+    private static Formats formats() {
+        int current = generation;
+        Formats formats = FORMATS.get();
+        if (formats == null || formats.generation != current) {
+            formats = new Formats(current);
+            FORMATS.set(formats);
+        }
+        return formats;
+    }
+}
@@ -0,0 +1,522 @@
+package com.example.whatsappclone.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.whatsappclone.Models.MessageModel;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent queue of outgoing messages, written in order per room and retried until sent
+ *
+ * A message is encrypted once, when the user sends it, and its multi-path update
+ * is journaled to disk before anything goes to the network, so clearing the text
+ * box never loses it: a failed write is retried with exponential backoff, and
+ * messages still queued when the process dies are sent on the next start.
+ *
+ * Each room drains in FIFO order with at most one write in flight. Messages that
+ * queue up behind it (a burst, or a backlog after an outage) go out together as
+ * one atomic write, so a room never has a gap and a receiver's live tail never
+ * sees an older message arrive after a newer one. Rooms drain independently and
+ * share round trips through the WriteBatcher. Backoff is cut short as soon as
+ * the database connection comes back.
+ *
+ * A write the database rejects (WriteBatcher.RejectedException) is not retried:
+ * its messages leave the room's FIFO as REJECTED, so they do not hold up the
+ * messages behind them, and wait for the user to resend() or discard() them.
+ * They stay journaled, so the next process tries them once more.
+ *
+ * Only the encrypted update is journaled, never the decoded text; messages
+ * restored by a later process are shown by decoding their room entry, see
+ * Entry.toStoredMessage(). clear() drops everything on logout.
+ *
+ * Listeners get each message's PENDING, SENT, FAILED (retry scheduled) or REJECTED state.
+ *
+ * All methods are called on the main thread.
+ */
+public class OutboundQueue {
+    private static final String TAG = "OutboundQueue";
+
+    private static final int MAX_BATCH = 50;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    public enum State {
+        PENDING,
+        SENT,
+        FAILED,
+        REJECTED
+    }
+
+    /**
+     * Receives state changes of queued messages
+     */
+    public interface Listener {
+        void onStateChanged(String room, String messageId, State state);
+    }
+
+    /**
+     * Durable copy of the queue; called on a single background thread, in order
+     */
+    public interface Journal {
+        List<Entry> loadAll();
+
+        void save(Entry entry);
+
+        void delete(List<String> messageIds);
+
+        void clear();
+    }
+
+    /**
+     * Runs a task on the main thread after a delay
+     */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * A message waiting to be written
+     */
+    public static final class Entry {
+        final String room;
+        final String messageId;
+        final String senderId;
+        final String body;
+        final long timestamp;
+        final Map<String, Object> updates;
+        int attempts;
+
+        /**
+         * @param room      local store key of the sender's room, e.g. "chats/" + senderRoom
+         * @param body      decoded text, shown in the sender's room until the write comes back;
+         *                  kept in memory only, so null for entries restored from the journal
+         * @param updates   multi-path update of the message; only maps, lists and plain values
+         */
+        public Entry(String room, String messageId, String senderId, String body, long timestamp,
+                     Map<String, Object> updates) {
+            this.room = room;
+            this.messageId = messageId;
+            this.senderId = senderId;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.updates = updates;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return false for an entry restored from the journal, whose text has to be
+         * decoded from toStoredMessage()
+         */
+        public boolean hasBody() {
+            return body != null;
+        }
+
+        /**
+         * @return the message as the sender's room shows it
+         */
+        public MessageModel toMessage() {
+            MessageModel model = new MessageModel(senderId, body, timestamp);
+            model.setMessageId(messageId);
+            return model;
+        }
+
+        /**
+         * @return the message as written to the sender's room, with the body of the
+         * envelope it references, ready for the room's decoder
+         */
+        public MessageModel toStoredMessage() {
+            MessageModel model = new MessageModel(senderId, null, timestamp);
+            model.setMessageId(messageId);
+            Object stored = updates.get(room + "/" + messageId);
+            if (stored instanceof Map) {
+                Map<?, ?> fields = (Map<?, ?>) stored;
+                model.setMessage(stringOf(fields.get("message")));
+                model.setEncryptedSessionKey(stringOf(fields.get("encryptedSessionKey")));
+                model.setEnvelopeId(stringOf(fields.get("envelopeId")));
+                model.setKeyId(stringOf(fields.get("keyId")));
+                Object encoding = fields.get("encoding");
+                if (encoding instanceof Number) {
+                    model.setEncoding(((Number) encoding).intValue());
+                }
+            }
+            if (model.getMessage() == null && model.getEnvelopeId() != null) {
+                model.setMessage(stringOf(updates.get(MessageEnvelopes.NODE + "/" + model.getEnvelopeId() + "/body")));
+            }
+            return model;
+        }
+
+        private static String stringOf(Object value) {
+            return value instanceof String ? (String) value : null;
+        }
+    }
+
+    private static volatile OutboundQueue instance;
+
+    public static OutboundQueue getInstance(Context context) {
+        if (instance == null) {
+            synchronized (OutboundQueue.class) {
+                if (instance == null) {
+                    Handler handler = new Handler(Looper.getMainLooper());
+                    OutboundQueue queue = new OutboundQueue(new OutboxStore(context.getApplicationContext()),
+                            Executors.newSingleThreadExecutor(), handler::postDelayed, WriteBatcher.getInstance());
+                    queue.load();
+                    queue.watchConnection();
+                    instance = queue;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final Journal journal;
+    private final Executor io;
+    private final Scheduler scheduler;
+    private final WriteBatcher batcher;
+    private final Random random = new Random();
+
+    private final LinkedHashMap<String, ArrayDeque<Entry>> rooms = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    // Rooms whose last write failed, with the number of failures in a row
+    private final Map<String, Integer> failures = new HashMap<>();
+    // Rooms waiting out their backoff, with the retry that will end it
+    private final Map<String, Integer> waiting = new HashMap<>();
+    // Messages the database rejected, by message id, until the user resends or discards them
+    private final Map<String, Entry> rejected = new HashMap<>();
+    // Rooms sending one message per write to find the one the database rejects
+    private final Set<String> isolating = new HashSet<>();
+    private int retries;
+    private final List<Listener> listeners = new ArrayList<>();
+    private boolean loaded;
+    // Bumped by clear(), so writes and journal loads from before it are ignored
+    private int generation;
+
+    public OutboundQueue(Journal journal, Executor io, Scheduler scheduler, WriteBatcher batcher) {
+        this.journal = journal;
+        this.io = io;
+        this.scheduler = scheduler;
+        this.batcher = batcher;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Journal the message and send it once the messages queued before it in its room are sent
+     */
+    public void enqueue(Entry entry) {
+        io.execute(() -> journal.save(entry));
+        add(entry);
+        notify(entry, State.PENDING);
+        drain(entry.room);
+    }
+
+    /**
+     * @return the room's unsent messages in send order, then its rejected ones
+     */
+    public List<Entry> pending(String room) {
+        ArrayDeque<Entry> queue = rooms.get(room);
+        List<Entry> pending = queue != null ? new ArrayList<>(queue) : new ArrayList<>();
+        for (Entry entry : rejected.values()) {
+            if (entry.room.equals(room)) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+
+    public State getState(String room, String messageId) {
+        if (rejected.containsKey(messageId)) {
+            return State.REJECTED;
+        }
+        for (Entry entry : pending(room)) {
+            if (entry.messageId.equals(messageId)) {
+                return failures.containsKey(room) ? State.FAILED : State.PENDING;
+            }
+        }
+        return State.SENT;
+    }
+
+    /**
+     * Queue a rejected message again, behind its room's other messages
+     */
+    public void resend(String messageId) {
+        Entry entry = rejected.remove(messageId);
+        if (entry == null) {
+            return;
+        }
+        add(entry);
+        notify(entry, State.PENDING);
+        drain(entry.room);
+    }
+
+    /**
+     * Give up on a rejected message and forget it
+     */
+    public void discard(String messageId) {
+        if (rejected.remove(messageId) != null) {
+            io.execute(() -> journal.delete(Collections.singletonList(messageId)));
+        }
+    }
+
+    /**
+     * Forget every queued and rejected message and delete the journal, e.g. on
+     * logout. Scheduled retries do nothing, and writes already in flight are not reported.
+     */
+    public void clear() {
+        generation++;
+        rooms.clear();
+        inFlight.clear();
+        failures.clear();
+        waiting.clear();
+        rejected.clear();
+        isolating.clear();
+        io.execute(journal::clear);
+    }
+
+    /**
+     * Retry every waiting room now, e.g. when connectivity returns
+     */
+    public void retryNow() {
+        for (String room : new ArrayList<>(waiting.keySet())) {
+            waiting.remove(room);
+            drain(room);
+        }
+    }
+
+    /**
+     * Take over messages journaled by an earlier process, ahead of anything queued since
+     */
+    void restore(List<Entry> entries) {
+        loaded = true;
+        Map<String, ArrayDeque<Entry>> queuedSince = new LinkedHashMap<>(rooms);
+        Set<String> queuedIds = new HashSet<>();
+        for (ArrayDeque<Entry> queue : queuedSince.values()) {
+            for (Entry entry : queue) {
+                queuedIds.add(entry.messageId);
+            }
+        }
+        rooms.clear();
+        for (Entry entry : entries) {
+            // The journal also holds what was queued since this process started
+            if (!queuedIds.contains(entry.messageId)) {
+                add(entry);
+            }
+        }
+        for (ArrayDeque<Entry> queue : queuedSince.values()) {
+            for (Entry entry : queue) {
+                add(entry);
+            }
+        }
+        for (String room : new ArrayList<>(rooms.keySet())) {
+            drain(room);
+        }
+    }
+
+    private void load() {
+        int started = generation;
+        // On the journal's thread, after any write queued before it
+        io.execute(() -> {
+            List<Entry> entries;
+            try {
+                entries = journal.loadAll();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load unsent messages", e);
+                entries = Collections.emptyList();
+            }
+            List<Entry> loadedEntries = entries;
+            scheduler.schedule(() -> restore(started == generation ? loadedEntries : Collections.emptyList()), 0);
+        });
+    }
+
+    private void watchConnection() {
+        FirebaseDatabase.getInstance().getReference(".info/connected").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (Boolean.TRUE.equals(snapshot.getValue(Boolean.class))) {
+                    retryNow();
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Connection state listener cancelled: " + error.getMessage());
+            }
+        });
+    }
+
+    private void add(Entry entry) {
+        ArrayDeque<Entry> queue = rooms.get(entry.room);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            rooms.put(entry.room, queue);
+        }
+        queue.addLast(entry);
+    }
+
+    private void drain(String room) {
+        ArrayDeque<Entry> queue = rooms.get(room);
+        // Wait for the journal so restored messages are not overtaken
+        if (!loaded || queue == null || queue.isEmpty() || inFlight.contains(room) || waiting.containsKey(room)) {
+            return;
+        }
+
+        List<Entry> batch = new ArrayList<>();
+        int maxBatch = isolating.contains(room) ? 1 : MAX_BATCH;
+        for (Entry entry : queue) {
+            if (batch.size() == maxBatch) {
+                break;
+            }
+            batch.add(entry);
+        }
+        inFlight.add(room);
+        int submitted = generation;
+        batcher.submit(merge(batch), error -> {
+            if (submitted == generation) {
+                onWritten(room, batch, error);
+            }
+        });
+    }
+
+    private void onWritten(String room, List<Entry> batch, Exception error) {
+        inFlight.remove(room);
+        ArrayDeque<Entry> queue = rooms.get(room);
+
+        if (error == null) {
+            List<String> sent = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                queue.remove(entry);
+                sent.add(entry.messageId);
+            }
+            if (queue.isEmpty()) {
+                rooms.remove(room);
+                isolating.remove(room);
+            }
+            failures.remove(room);
+            io.execute(() -> journal.delete(sent));
+            for (Entry entry : batch) {
+                notify(entry, State.SENT);
+            }
+            drain(room);
+            return;
+        }
+
+        if (error instanceof WriteBatcher.RejectedException) {
+            onRejected(room, batch);
+            return;
+        }
+
+        int failed = failures.containsKey(room) ? failures.get(room) : 0;
+        failures.put(room, failed + 1);
+        long delay = backoff(failed);
+        for (Entry entry : batch) {
+            entry.attempts++;
+            io.execute(() -> journal.save(entry));
+            notify(entry, State.FAILED);
+        }
+
+        int retry = ++retries;
+        waiting.put(room, retry);
+        scheduler.schedule(() -> {
+            // Skipped if retryNow() already ended this wait
+            if (waiting.remove(room, retry)) {
+                drain(room);
+            }
+        }, delay);
+    }
+
+    private void onRejected(String room, List<Entry> batch) {
+        failures.remove(room);
+        if (batch.size() > 1) {
+            // Only one of them may be at fault; send them one by one to find it
+            isolating.add(room);
+            drain(room);
+            return;
+        }
+
+        Entry entry = batch.get(0);
+        ArrayDeque<Entry> queue = rooms.get(room);
+        queue.remove(entry);
+        if (queue.isEmpty()) {
+            rooms.remove(room);
+        }
+        isolating.remove(room);
+        rejected.put(entry.messageId, entry);
+        entry.attempts++;
+        io.execute(() -> journal.save(entry));
+        notify(entry, State.REJECTED);
+        drain(room);
+    }
+
+    /**
+     * Exponential backoff with jitter, so clients that failed together do not retry together
+     */
+    long backoff(int failures) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures, 20));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void notify(Entry entry, State state) {
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onStateChanged(entry.room, entry.messageId, state);
+        }
+    }
+
+    /**
+     * Combine consecutive messages of a room into one update. Later values win, which
+     * keeps the newest message in the conversation summary; server increments are
+     * added up so the receiver's unread count still grows by one per message.
+     */
+    static Map<String, Object> merge(List<Entry> batch) {
+        Map<String, Object> merged = new HashMap<>();
+        for (Entry entry : batch) {
+            for (Map.Entry<String, Object> update : entry.updates.entrySet()) {
+                Object previous = merged.get(update.getKey());
+                Long previousDelta = WriteBatcher.incrementOf(previous);
+                Long delta = WriteBatcher.incrementOf(update.getValue());
+                if (previousDelta != null && delta != null) {
+                    merged.put(update.getKey(), WriteBatcher.increment(previousDelta + delta));
+                } else {
+                    merged.put(update.getKey(), update.getValue());
+                }
+            }
+        }
+        return merged;
+    }
+}
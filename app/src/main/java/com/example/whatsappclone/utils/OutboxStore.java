@@ -0,0 +1,181 @@
+package com.example.whatsappclone.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite journal of the OutboundQueue
+ *
+ * Kept in its own database: the message store may drop its tables on upgrade
+ * because everything in it can be refetched, but unsent messages cannot.
+ * Updates are stored as JSON, which holds the maps and plain values they are made of.
+ * The decoded text is not stored: the body column is left empty, and cleared in
+ * rows written before version 2.
+ */
+public class OutboxStore extends SQLiteOpenHelper implements OutboundQueue.Journal {
+    private static final String TAG = "OutboxStore";
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_OUTBOX = "outbox";
+    private static final String COL_MESSAGE_ID = "message_id";
+    private static final String COL_ROOM = "room";
+    private static final String COL_SENDER_ID = "sender_id";
+    private static final String COL_BODY = "body";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_UPDATES = "updates";
+    private static final String COL_ATTEMPTS = "attempts";
+
+    private static final String[] COLUMNS = {COL_ROOM, COL_MESSAGE_ID, COL_SENDER_ID,
+            COL_TIMESTAMP, COL_UPDATES, COL_ATTEMPTS};
+
+    public OutboxStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                + COL_MESSAGE_ID + " TEXT PRIMARY KEY, "
+                + COL_ROOM + " TEXT NOT NULL, "
+                + COL_SENDER_ID + " TEXT, "
+                + COL_BODY + " TEXT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_UPDATES + " TEXT NOT NULL, "
+                + COL_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Unsent messages must survive upgrades; only their plaintext goes
+        if (oldVersion < 2) {
+            db.execSQL("UPDATE " + TABLE_OUTBOX + " SET " + COL_BODY + " = NULL");
+        }
+    }
+
+    /**
+     * Unsent messages in send order; push ids sort by creation time within a timestamp
+     */
+    @Override
+    public List<OutboundQueue.Entry> loadAll() {
+        List<OutboundQueue.Entry> entries = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX, COLUMNS, null, null, null, null,
+                COL_TIMESTAMP + " ASC, " + COL_MESSAGE_ID + " ASC")) {
+            while (cursor.moveToNext()) {
+                try {
+                    OutboundQueue.Entry entry = new OutboundQueue.Entry(cursor.getString(0), cursor.getString(1),
+                            cursor.getString(2), null, cursor.getLong(3),
+                            toMap(new JSONObject(cursor.getString(4))));
+                    entry.attempts = cursor.getInt(5);
+                    entries.add(entry);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Skipping unreadable outbox entry " + cursor.getString(1), e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void save(OutboundQueue.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(COL_MESSAGE_ID, entry.messageId);
+        values.put(COL_ROOM, entry.room);
+        values.put(COL_SENDER_ID, entry.senderId);
+        values.put(COL_TIMESTAMP, entry.timestamp);
+        values.put(COL_ATTEMPTS, entry.attempts);
+        try {
+            values.put(COL_UPDATES, toJson(entry.updates).toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot journal message " + entry.messageId, e);
+            return;
+        }
+        getWritableDatabase().insertWithOnConflict(TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void clear() {
+        getWritableDatabase().delete(TABLE_OUTBOX, null, null);
+    }
+
+    @Override
+    public void delete(List<String> messageIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(TABLE_OUTBOX, COL_MESSAGE_ID + " = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static JSONObject toJson(Map<?, ?> map) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            json.put(String.valueOf(entry.getKey()), toJsonValue(entry.getValue()));
+        }
+        return json;
+    }
+
+    private static Object toJsonValue(Object value) throws JSONException {
+        if (value == null) {
+            return JSONObject.NULL;
+        }
+        if (value instanceof Map) {
+            return toJson((Map<?, ?>) value);
+        }
+        if (value instanceof List) {
+            JSONArray array = new JSONArray();
+            for (Object item : (List<?>) value) {
+                array.put(toJsonValue(item));
+            }
+            return array;
+        }
+        return value;
+    }
+
+    private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, fromJsonValue(json.get(key)));
+        }
+        return map;
+    }
+
+    private static Object fromJsonValue(Object value) throws JSONException {
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(fromJsonValue(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.whatsappclone.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of other users' RSA public keys from PublicKeys/<userId>
+ *
+ * Keys are kept parsed in memory and mirrored to disk, so opening a chat with a
+ * known contact needs no network round trip. Screens that need a key watch()
+ * it: every watcher of a user shares one Firebase listener, which delivers the
+ * key as soon as it is published and replaces it when it changes, instead of
+ * each screen polling. prefetch() refreshes keys older than the TTL without
+ * keeping a listener attached.
+ *
+ * All methods are called on the main thread, where Firebase delivers its callbacks.
+ */
+public class PublicKeyDirectory {
+    private static final String TAG = "PublicKeyDirectory";
+    public static final String NODE = "PublicKeys";
+
+    private static final String PREFS_NAME = "PublicKeyDirectory";
+    private static final String FETCHED_AT_SUFFIX = ":fetchedAt";
+    private static final long TTL_MILLIS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * Receives a user's public key, once it is known and again whenever it changes
+     */
+    public interface Listener {
+        void onKeyAvailable(String userId, PublicKey publicKey);
+
+        /**
+         * The user has not published a key; onKeyAvailable follows once they do
+         */
+        default void onKeyMissing(String userId) {
+        }
+    }
+
+    private static final class Entry {
+        final String encoded;
+        final long fetchedAt;
+        PublicKey parsed;
+
+        Entry(String encoded, long fetchedAt) {
+            this.encoded = encoded;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private static final class Watch {
+        final List<Listener> listeners = new ArrayList<>();
+        ValueEventListener firebaseListener;
+    }
+
+    private static volatile PublicKeyDirectory instance;
+
+    public static PublicKeyDirectory getInstance(Context context) {
+        if (instance == null) {
+            synchronized (PublicKeyDirectory.class) {
+                if (instance == null) {
+                    instance = new PublicKeyDirectory(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final SharedPreferences prefs;
+    private final DatabaseReference keysRef;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Watch> watches = new HashMap<>();
+    private final Map<String, Boolean> fetching = new HashMap<>();
+
+    private PublicKeyDirectory(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        keysRef = FirebaseDatabase.getInstance().getReference(NODE);
+
+        // Encoded keys only; each is parsed the first time it is asked for
+        for (Map.Entry<String, ?> stored : prefs.getAll().entrySet()) {
+            if (stored.getKey().endsWith(FETCHED_AT_SUFFIX) || !(stored.getValue() instanceof String)) {
+                continue;
+            }
+            long fetchedAt = prefs.getLong(stored.getKey() + FETCHED_AT_SUFFIX, 0);
+            entries.put(stored.getKey(), new Entry((String) stored.getValue(), fetchedAt));
+        }
+        Log.d(TAG, "Loaded " + entries.size() + " public keys from disk");
+    }
+
+    /**
+     * @return the user's last known public key, possibly older than the TTL, or null
+     */
+    public synchronized PublicKey get(String userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.parsed == null) {
+            try {
+                entry.parsed = RSAKeyManager.stringToPublicKey(entry.encoded);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Dropping unreadable public key for " + userId, e);
+                remove(userId);
+                return null;
+            }
+        }
+        return entry.parsed;
+    }
+
+    /**
+     * Deliver the user's key to the listener now if it is known, and again on every
+     * change until unwatch(). Watchers of the same user share one Firebase listener.
+     */
+    public void watch(String userId, Listener listener) {
+        PublicKey known = get(userId);
+        Watch watch = watches.get(userId);
+        if (watch == null) {
+            watch = new Watch();
+            watches.put(userId, watch);
+            watch.firebaseListener = keysRef.child(userId).addValueEventListener(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    onKeySnapshot(userId, snapshot.getValue(String.class));
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    Log.e(TAG, "Public key listener cancelled for " + userId, error.toException());
+                }
+            });
+        }
+        watch.listeners.add(listener);
+
+        if (known != null) {
+            listener.onKeyAvailable(userId, known);
+        }
+    }
+
+    public void unwatch(String userId, Listener listener) {
+        Watch watch = watches.get(userId);
+        if (watch == null) {
+            return;
+        }
+        watch.listeners.remove(listener);
+        if (watch.listeners.isEmpty()) {
+            keysRef.child(userId).removeEventListener(watch.firebaseListener);
+            watches.remove(userId);
+        }
+    }
+
+    /**
+     * Refresh the user's key in the background if it is missing or older than the TTL
+     */
+    public void prefetch(String userId) {
+        if (watches.containsKey(userId) || fetching.containsKey(userId)) {
+            return; // already live or in flight
+        }
+        synchronized (this) {
+            Entry entry = entries.get(userId);
+            if (entry != null && System.currentTimeMillis() - entry.fetchedAt < TTL_MILLIS) {
+                return;
+            }
+        }
+
+        fetching.put(userId, Boolean.TRUE);
+        keysRef.child(userId).get().addOnCompleteListener(task -> {
+            fetching.remove(userId);
+            if (task.isSuccessful() && task.getResult() != null) {
+                onKeySnapshot(userId, task.getResult().getValue(String.class));
+            } else {
+                Log.w(TAG, "Failed to prefetch public key for " + userId, task.getException());
+            }
+        });
+    }
+
+    private void onKeySnapshot(String userId, String encoded) {
+        Watch watch = watches.get(userId);
+        if (encoded == null) {
+            // Not published yet, or removed; watchers get the key once it appears
+            synchronized (this) {
+                remove(userId);
+            }
+            if (watch != null) {
+                for (Listener listener : new ArrayList<>(watch.listeners)) {
+                    listener.onKeyMissing(userId);
+                }
+            }
+            return;
+        }
+
+        PublicKey publicKey = store(userId, encoded);
+        if (publicKey != null && watch != null) {
+            for (Listener listener : new ArrayList<>(watch.listeners)) {
+                listener.onKeyAvailable(userId, publicKey);
+            }
+        }
+    }
+
+    /**
+     * Remember a fetched key in memory and on disk
+     *
+     * @return the parsed key if it is new or changed, null if unchanged or malformed
+     */
+    private synchronized PublicKey store(String userId, String encoded) {
+        long now = System.currentTimeMillis();
+        Entry previous = entries.get(userId);
+        if (previous != null && encoded.equals(previous.encoded)) {
+            Entry refreshed = new Entry(encoded, now);
+            refreshed.parsed = previous.parsed;
+            entries.put(userId, refreshed);
+            prefs.edit().putLong(userId + FETCHED_AT_SUFFIX, now).apply();
+            return null; // watchers already have it
+        }
+
+        PublicKey publicKey;
+        try {
+            publicKey = RSAKeyManager.stringToPublicKey(encoded);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring malformed public key for " + userId, e);
+            return null;
+        }
+        Entry entry = new Entry(encoded, now);
+        entry.parsed = publicKey;
+        entries.put(userId, entry);
+        prefs.edit()
+                .putString(userId, encoded)
+                .putLong(userId + FETCHED_AT_SUFFIX, now)
+                .apply();
+        return publicKey;
+    }
+
+    private void remove(String userId) {
+        if (entries.remove(userId) != null) {
+            prefs.edit().remove(userId).remove(userId + FETCHED_AT_SUFFIX).apply();
+        }
+    }
+}
@@ -1,31 +1,34 @@
 package com.example.whatsappclone.utils;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Base64;
 import android.util.Log;
 
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
 /**
  * Manages RSA key pair generation, storage, and retrieval
  * Private keys are stored locally, public keys are shared via Firebase
+ *
+ * Keys live in a pluggable KeyStorage: AndroidKeyStore for new keys, or the
+ * original SharedPreferences storage for keys created by earlier versions and
+ * where the keystore is unavailable. Loaded key handles are cached for the
+ * life of the process.
  */
 public class RSAKeyManager {
     private static final String TAG = "RSAKeyManager";
-    private static final String PREFS_NAME = "RSAKeys";
-    private static final String PRIVATE_KEY = "rsa_private_key";
-    private static final String PUBLIC_KEY = "rsa_public_key";
-    private static final int KEY_SIZE = 2048; // RSA key size in bits
+    static final int KEY_SIZE = 2048; // RSA key size in bits
+
+    private static volatile CachedKeyStorage storage;
 
     /**
-     * Generate a new RSA key pair
+     * Generate a new RSA key pair in software, without storing it
      */
     public static KeyPair generateKeyPair() throws Exception {
         try {
@@ -41,48 +44,48 @@ public class RSAKeyManager {
     }
 
     /**
-     * Save RSA key pair to SharedPreferences (local device storage)
-     * IMPORTANT: Only the private key should be stored locally
+     * Generate and store this device's key pair, replacing any existing one.
+     * Slow (hundreds of ms); call it off the main thread.
+     */
+    public static KeyPair createKeyPair(Context context) throws Exception {
+        CachedKeyStorage keys = getStorage(context);
+        try {
+            KeyPair keyPair = keys.generate();
+            Log.d(TAG, "RSA key pair created in " + keys.getBackend().getClass().getSimpleName());
+            return keyPair;
+        } catch (GeneralSecurityException e) {
+            if (keys.getBackend() instanceof SoftwareKeyStorage) {
+                Log.e(TAG, "Failed to create RSA key pair", e);
+                throw new Exception("Failed to create RSA key pair: " + e.getMessage(), e);
+            }
+            Log.w(TAG, "Keystore key generation failed, using software storage", e);
+            return useSoftwareStorage(context).generate();
+        }
+    }
+
+    /**
+     * Save an externally generated key pair. It is kept in software storage,
+     * which from then on is this device's key storage.
      */
     public static void saveKeyPair(Context context, KeyPair keyPair) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-
-        // Save private key
-        String privateKeyStr = Base64.encodeToString(
-            keyPair.getPrivate().getEncoded(), 
-            Base64.NO_WRAP
-        );
-        editor.putString(PRIVATE_KEY, privateKeyStr);
-
-        // Save public key (for convenience, though it's also in Firebase)
-        String publicKeyStr = Base64.encodeToString(
-            keyPair.getPublic().getEncoded(), 
-            Base64.NO_WRAP
-        );
-        editor.putString(PUBLIC_KEY, publicKeyStr);
-
-        editor.apply();
-        Log.d(TAG, "RSA key pair saved to SharedPreferences");
+        try {
+            useSoftwareStorage(context).save(keyPair);
+            Log.d(TAG, "RSA key pair saved to SharedPreferences");
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Failed to save RSA key pair", e);
+        }
     }
 
     /**
      * Load private key from local storage
      */
     public static PrivateKey loadPrivateKey(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String keyStr = prefs.getString(PRIVATE_KEY, null);
-        
-        if (keyStr == null) {
-            Log.w(TAG, "No private key found in storage");
-            return null;
-        }
-
         try {
-            byte[] keyBytes = Base64.decode(keyStr, Base64.NO_WRAP);
-            PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            return keyFactory.generatePrivate(spec);
+            PrivateKey key = getStorage(context).loadPrivateKey();
+            if (key == null) {
+                Log.w(TAG, "No private key found in storage");
+            }
+            return key;
         } catch (Exception e) {
             Log.e(TAG, "Failed to load private key", e);
             return null;
@@ -93,15 +96,16 @@ public class RSAKeyManager {
      * Load public key from local storage
      */
     public static PublicKey loadPublicKey(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String keyStr = prefs.getString(PUBLIC_KEY, null);
-        
-        if (keyStr == null) {
-            Log.w(TAG, "No public key found in storage");
+        try {
+            PublicKey key = getStorage(context).loadPublicKey();
+            if (key == null) {
+                Log.w(TAG, "No public key found in storage");
+            }
+            return key;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load public key", e);
             return null;
         }
-
-        return stringToPublicKey(keyStr);
     }
 
     /**
@@ -125,7 +129,7 @@ public class RSAKeyManager {
         try {
             byte[] keyBytes = Base64.decode(keyStr.trim(), Base64.NO_WRAP);
             X509EncodedKeySpec spec = new X509EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            KeyFactory keyFactory = CryptoContext.keyFactory("RSA");
             return keyFactory.generatePublic(spec);
         } catch (Exception e) {
             Log.e(TAG, "Failed to convert string to public key", e);
@@ -137,16 +141,56 @@ public class RSAKeyManager {
      * Check if RSA keys exist locally
      */
     public static boolean hasKeys(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.contains(PRIVATE_KEY) && prefs.contains(PUBLIC_KEY);
+        return getStorage(context).hasKeys();
     }
 
     /**
      * Clear all stored keys (for logout or reset)
      */
     public static void clearKeys(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().clear().apply();
+        getStorage(context).clear();
+        HybridEncryption.clearSessionKeyCache();
         Log.d(TAG, "All RSA keys cleared from storage");
     }
+
+    /**
+     * Replace the key storage, e.g. with a SoftwareKeyStorage in tests
+     */
+    public static void setStorage(KeyStorage backend) {
+        storage = new CachedKeyStorage(backend);
+    }
+
+    /**
+     * Keys from earlier versions stay in SharedPreferences, since they cannot be
+     * moved into the keystore; otherwise AndroidKeyStore is used where it exists.
+     */
+    private static CachedKeyStorage getStorage(Context context) {
+        CachedKeyStorage current = storage;
+        if (current != null) {
+            return current;
+        }
+        synchronized (RSAKeyManager.class) {
+            if (storage == null) {
+                SoftwareKeyStorage software = softwareStorage(context);
+                AndroidKeyStoreStorage keyStore = software.hasKeys() ? null : AndroidKeyStoreStorage.open();
+                storage = new CachedKeyStorage(keyStore != null ? keyStore : software);
+                Log.d(TAG, "Using " + storage.getBackend().getClass().getSimpleName());
+            }
+            return storage;
+        }
+    }
+
+    private static synchronized CachedKeyStorage useSoftwareStorage(Context context) {
+        CachedKeyStorage current = getStorage(context);
+        if (current.getBackend() instanceof SoftwareKeyStorage) {
+            return current;
+        }
+        current.clear();
+        storage = new CachedKeyStorage(softwareStorage(context));
+        return storage;
+    }
+
+    private static SoftwareKeyStorage softwareStorage(Context context) {
+        return new SoftwareKeyStorage(context.getSharedPreferences(SoftwareKeyStorage.PREFS_NAME, Context.MODE_PRIVATE));
+    }
 }
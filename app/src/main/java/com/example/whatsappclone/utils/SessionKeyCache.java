@@ -0,0 +1,127 @@
+package com.example.whatsappclone.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Bounded LRU cache from an RSA-encrypted session key (as stored in Firebase)
+ * to the unwrapped AES session key.
+ *
+ * Unwrapping a session key is a 2048-bit RSA private-key operation, while the
+ * AES step that follows is orders of magnitude cheaper. Messages are decrypted
+ * again on every re-render, so caching the unwrapped key skips the RSA step.
+ *
+ * The cache is bounded by an approximate memory budget rather than an entry count.
+ */
+public class SessionKeyCache {
+    // A 2048-bit wrapped key is a ~327-char Z85 "z:" frame (654 bytes as UTF-16) plus a 32-byte
+    // AES key and the overhead below, ~780 bytes an entry: this holds roughly 330 session keys
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Rough per-entry overhead: map entry, String header, SecretKeySpec and its byte[]
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, SecretKey> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SessionKeyCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public SessionKeyCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached session key, or null on a miss
+     */
+    public synchronized SecretKey get(String encryptedSessionKey) {
+        SecretKey key = entries.get(encryptedSessionKey);
+        if (key != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return key;
+    }
+
+    public synchronized void put(String encryptedSessionKey, SecretKey sessionKey) {
+        SecretKey previous = entries.put(encryptedSessionKey, sessionKey);
+        if (previous != null) {
+            currentBytes -= sizeOf(encryptedSessionKey, previous);
+        }
+        currentBytes += sizeOf(encryptedSessionKey, sessionKey);
+
+        // Evict least recently used entries until we are back within budget
+        Iterator<Map.Entry<String, SecretKey>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, SecretKey> eldest = it.next();
+            if (eldest.getKey().equals(encryptedSessionKey)) {
+                break; // never evict the entry we just added
+            }
+            currentBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop all cached keys (for logout or key reset)
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return currentBytes;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SessionKeyCache{entries=" + entries.size()
+                + ", bytes=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ", evictions=" + evictions + "}";
+    }
+
+    private static long sizeOf(String encryptedSessionKey, SecretKey key) {
+        byte[] encoded = key.getEncoded();
+        return ENTRY_OVERHEAD_BYTES
+                + 2L * encryptedSessionKey.length()
+                + (encoded != null ? encoded.length : 0);
+    }
+}
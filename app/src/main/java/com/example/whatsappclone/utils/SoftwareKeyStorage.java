@@ -0,0 +1,83 @@
+package com.example.whatsappclone.utils;
+
+import android.content.SharedPreferences;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Keeps the key pair encoded in SharedPreferences
+ *
+ * This is the original storage format, so keys saved by earlier versions load
+ * unchanged. It is used when AndroidKeyStore is unavailable and in JVM tests.
+ */
+public class SoftwareKeyStorage implements KeyStorage {
+    static final String PREFS_NAME = "RSAKeys";
+    private static final String PRIVATE_KEY = "rsa_private_key";
+    private static final String PUBLIC_KEY = "rsa_public_key";
+
+    private final SharedPreferences prefs;
+
+    public SoftwareKeyStorage(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    @Override
+    public KeyPair generate() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(RSAKeyManager.KEY_SIZE, CryptoContext.secureRandom());
+        KeyPair keyPair = keyGen.generateKeyPair();
+        save(keyPair);
+        return keyPair;
+    }
+
+    @Override
+    public void save(KeyPair keyPair) {
+        // Earlier versions wrote Base64; WireCodec reads both
+        prefs.edit()
+                .putString(PRIVATE_KEY, WireCodec.encode(keyPair.getPrivate().getEncoded()))
+                .putString(PUBLIC_KEY, WireCodec.encode(keyPair.getPublic().getEncoded()))
+                .apply();
+    }
+
+    @Override
+    public PrivateKey loadPrivateKey() throws GeneralSecurityException {
+        String keyStr = prefs.getString(PRIVATE_KEY, null);
+        if (keyStr == null) {
+            return null;
+        }
+        return CryptoContext.keyFactory("RSA").generatePrivate(new PKCS8EncodedKeySpec(decode(keyStr)));
+    }
+
+    @Override
+    public PublicKey loadPublicKey() throws GeneralSecurityException {
+        String keyStr = prefs.getString(PUBLIC_KEY, null);
+        if (keyStr == null) {
+            return null;
+        }
+        return CryptoContext.keyFactory("RSA").generatePublic(new X509EncodedKeySpec(decode(keyStr)));
+    }
+
+    @Override
+    public boolean hasKeys() {
+        return prefs.contains(PRIVATE_KEY) && prefs.contains(PUBLIC_KEY);
+    }
+
+    @Override
+    public void clear() {
+        prefs.edit().clear().apply();
+    }
+
+    private static byte[] decode(String keyStr) throws GeneralSecurityException {
+        try {
+            return WireCodec.decodeSingle(keyStr);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Stored key is corrupt", e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.whatsappclone.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Named spans and marks on the way from process start to a populated chat list
+ *
+ * Times are milliseconds since the process started. Spans may end on another
+ * thread or callback than the one that began them. The timeline is logged once
+ * the startup goal is reached, and can be printed at any time with
+ * adb shell dumpsys activity com.example.whatsappclone/.MainActivity
+ */
+public class StartupTrace {
+    private static final String TAG = "StartupTrace";
+    private static final int MAX_EVENTS = 128;
+
+    /**
+     * Supplies the current time in milliseconds
+     */
+    public interface Clock {
+        long now();
+    }
+
+    /**
+     * A span that is still open; end() records its duration
+     */
+    public final class Span {
+        private final String name;
+        private final long start;
+        private boolean ended;
+
+        private Span(String name, long start) {
+            this.name = name;
+            this.start = start;
+        }
+
+        public void end() {
+            synchronized (StartupTrace.this) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                add(new Event(name, start, clock.now()));
+            }
+        }
+    }
+
+    private static final class Event {
+        final String name;
+        final long start;
+        final long end; // equal to start for marks
+
+        Event(String name, long start, long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Holder {
+        static final StartupTrace INSTANCE = new StartupTrace(
+                SystemClock::elapsedRealtime, Process.getStartElapsedRealtime());
+    }
+
+    /**
+     * The trace of this process's startup
+     */
+    public static StartupTrace get() {
+        return Holder.INSTANCE;
+    }
+
+    private final Clock clock;
+    private final long origin;
+    private final List<Event> events = new ArrayList<>();
+    private boolean finished;
+
+    /**
+     * @param origin clock time that the timeline is measured from
+     */
+    public StartupTrace(Clock clock, long origin) {
+        this.clock = clock;
+        this.origin = origin;
+    }
+
+    public Span begin(String name) {
+        return new Span(name, clock.now());
+    }
+
+    /**
+     * Record an instant, e.g. an event arriving
+     */
+    public synchronized void mark(String name) {
+        long now = clock.now();
+        add(new Event(name, now, now));
+    }
+
+    /**
+     * Mark the startup goal as reached and log the timeline; later calls do nothing
+     *
+     * @return true for the call that finished the trace
+     */
+    public boolean finish(String name) {
+        synchronized (this) {
+            if (finished) {
+                return false;
+            }
+            mark(name);
+            finished = true;
+        }
+        Log.i(TAG, dump());
+        return true;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the timeline in recording order, one event per line
+     */
+    public synchronized String dump() {
+        StringBuilder out = new StringBuilder("Startup timeline (ms since process start)");
+        for (Event event : events) {
+            out.append('\n');
+            if (event.end == event.start) {
+                out.append(String.format(Locale.US, "%7d          %s", event.start - origin, event.name));
+            } else {
+                out.append(String.format(Locale.US, "%7d %+7d  %s",
+                        event.start - origin, event.end - event.start, event.name));
+            }
+        }
+        return out.toString();
+    }
+
+    private void add(Event event) {
+        // Only startup matters; stop recording once the goal is reached
+        if (!finished && events.size() < MAX_EVENTS) {
+            events.add(event);
+        }
+    }
+}
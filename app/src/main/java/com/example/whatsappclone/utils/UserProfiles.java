@@ -0,0 +1,190 @@
+package com.example.whatsappclone.utils;
+
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maintains the public, list-sized projection of each user and the per-user contact index
+ *
+ * Users/<userId> holds the full account record (mail, status, ...). The chat list
+ * only renders a name and a picture, so those are mirrored to Profiles/<userId>,
+ * and the people a user can chat with are listed under Contacts/<ownerId>/<otherId>.
+ * The chat list follows Contacts/<myId> and Conversations/<myId> and reads one
+ * profile per contact, instead of downloading every account.
+ *
+ * MailIndex/<mailKey> maps each account's mail address to its id, so adding a
+ * contact by mail reads one child rather than querying every account.
+ *
+ * Contacts are added by mail address from the main menu, and a sent message adds
+ * each participant to the other's contacts in the same write. seedContacts() is a
+ * stopgap that gives an account with no contacts something to start from.
+ */
+public class UserProfiles {
+    private static final String TAG = "UserProfiles";
+    public static final String NODE = "Profiles";
+    public static final String CONTACTS_NODE = "Contacts";
+    public static final String MAIL_INDEX_NODE = "MailIndex";
+    private static final String USERS_NODE = "Users";
+
+    // Contacts seeded for accounts that have none yet, e.g. created before the index
+    private static final int SUGGESTED_CONTACTS = 50;
+
+    private static boolean backfilled;
+
+    /**
+     * Add a user's profile fields to a multi-path update; null fields are left as they are
+     */
+    public static void putProfile(Map<String, Object> updates, String userId, String userName, String profilePic) {
+        String path = NODE + "/" + userId + "/";
+        if (userName != null) {
+            updates.put(path + "userName", userName);
+        }
+        if (profilePic != null) {
+            updates.put(path + "profilePic", profilePic);
+        }
+    }
+
+    /**
+     * Add the lookup of an account by its mail address to a multi-path update; a null mail is skipped
+     */
+    public static void putMail(Map<String, Object> updates, String userId, String mail) {
+        if (mail != null) {
+            updates.put(MAIL_INDEX_NODE + "/" + mailKey(mail), userId);
+        }
+    }
+
+    /**
+     * @return the mail address as a database key: trimmed, lower case, and with the
+     * characters keys cannot contain percent-encoded
+     */
+    static String mailKey(String mail) {
+        String normalized = mail.trim().toLowerCase(Locale.ROOT);
+        StringBuilder key = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c == '%' || c == '.' || c == '#' || c == '$' || c == '[' || c == ']' || c == '/') {
+                key.append('%').append(String.format(Locale.ROOT, "%02X", (int) c));
+            } else {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Add a contact to the owner's list in a multi-path update
+     */
+    public static void putContact(Map<String, Object> updates, String ownerId, String otherId) {
+        updates.put(CONTACTS_NODE + "/" + ownerId + "/" + otherId, true);
+    }
+
+    /**
+     * Add both participants of a chat to each other's contacts in a multi-path update
+     */
+    public static void putChatContacts(Map<String, Object> updates, String senderId, String receiverId) {
+        putContact(updates, senderId, receiverId);
+        putContact(updates, receiverId, senderId);
+    }
+
+    /**
+     * Find the account with this mail address and add it to the owner's contacts
+     *
+     * @param callback receives the contact's id on the main thread, or null if no other account has the mail
+     */
+    public static void addContactByMail(DatabaseReference root, String ownerId, String mail,
+                                        CryptoExecutor.Callback<String> callback) {
+        root.child(MAIL_INDEX_NODE).child(mailKey(mail)).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                callback.onError(task.getException());
+                return;
+            }
+            String contactId = task.getResult().getValue(String.class);
+            if (contactId == null || contactId.equals(ownerId)) {
+                callback.onResult(null);
+                return;
+            }
+            String found = contactId;
+            Map<String, Object> updates = new HashMap<>();
+            putContact(updates, ownerId, found);
+            root.updateChildren(updates).addOnCompleteListener(write -> {
+                if (write.isSuccessful()) {
+                    callback.onResult(found);
+                } else {
+                    callback.onError(write.getException());
+                }
+            });
+        });
+    }
+
+    /**
+     * Copy the signed-in user's name and picture to their profile, and their mail to
+     * the mail index, where missing, for accounts created before those existed.
+     * Runs once per process.
+     *
+     * @param mail the account's mail address, or null if it has none
+     */
+    public static void backfill(DatabaseReference root, String userId, String mail) {
+        if (backfilled || userId == null) {
+            return;
+        }
+        backfilled = true;
+        if (mail != null) {
+            root.child(MAIL_INDEX_NODE).child(mailKey(mail)).get().addOnSuccessListener(indexed -> {
+                if (!indexed.exists()) {
+                    Map<String, Object> updates = new HashMap<>();
+                    putMail(updates, userId, mail);
+                    root.updateChildren(updates)
+                            .addOnFailureListener(e -> Log.e(TAG, "Failed to index mail", e));
+                }
+            });
+        }
+        root.child(NODE).child(userId).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                backfilled = false;
+                return;
+            }
+            if (task.getResult().exists()) {
+                return;
+            }
+            root.child(USERS_NODE).child(userId).get().addOnSuccessListener(account -> {
+                Map<String, Object> updates = new HashMap<>();
+                putProfile(updates, userId, account.child("userName").getValue(String.class),
+                        account.child("profilePic").getValue(String.class));
+                if (!updates.isEmpty()) {
+                    root.updateChildren(updates)
+                            .addOnFailureListener(e -> Log.e(TAG, "Failed to backfill profile", e));
+                }
+            });
+        });
+    }
+
+    /**
+     * Give an account without contacts a first page of other users to start chats with.
+     * A stopgap for new accounts; contacts are otherwise added by mail or by chatting.
+     */
+    public static void seedContacts(DatabaseReference root, String ownerId) {
+        root.child(CONTACTS_NODE).child(ownerId).limitToFirst(1).get().addOnSuccessListener(existing -> {
+            if (existing.exists()) {
+                return;
+            }
+            root.child(NODE).orderByKey().limitToFirst(SUGGESTED_CONTACTS + 1).get().addOnSuccessListener(profiles -> {
+                Map<String, Object> updates = new HashMap<>();
+                for (DataSnapshot profile : profiles.getChildren()) {
+                    if (!ownerId.equals(profile.getKey()) && updates.size() < SUGGESTED_CONTACTS) {
+                        putContact(updates, ownerId, profile.getKey());
+                    }
+                }
+                if (!updates.isEmpty()) {
+                    root.updateChildren(updates)
+                            .addOnFailureListener(e -> Log.e(TAG, "Failed to seed contacts", e));
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.whatsappclone.utils;
+
+import android.util.Base64;
+
+import java.util.Arrays;
+
+/**
+ * Compact text encoding for ciphertext stored in the Realtime Database
+ *
+ * The database has no binary type, so ciphertext has to travel as a string.
+ * A value is a versioned binary frame written as Z85 text behind a "z:" header:
+ *
+ *   frame  = header || (length (varint) || bytes)* || zero padding
+ *   header = version (2 bits) || padding length (2 bits) || field count (4 bits)
+ *
+ * The frame is padded to a multiple of 4 for Z85. Every field carries its length,
+ * so a frame that lost or gained whole Z85 groups no longer adds up and is
+ * rejected. Version 1 frames left the last field unprefixed, running up to the
+ * padding; they are still read, but cannot be checked that way.
+ *
+ * Z85 spends 5 characters per 4 bytes where Base64 spends 4 per 3, and its
+ * alphabet contains neither '"' nor '\', so the text is never escaped in JSON.
+ * Several fields (e.g. a wrapped session key and a body) share one frame.
+ *
+ * Values without the header are legacy Base64 and decode as a single field,
+ * so rows written before this format keep working.
+ */
+public final class WireCodec {
+    public static final String PREFIX = "z:";
+    private static final int VERSION = 2;
+    // The last field has no length and runs up to the padding
+    private static final int VERSION_OPEN_ENDED = 1;
+    private static final int MAX_FIELDS = 15;
+
+    private static final char[] ALPHABET = ("0123456789abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ.-:+=^!/*?&<>()[]{}@%$#").toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DIGITS[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private WireCodec() {
+    }
+
+    public static boolean isCompact(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Pack fields into one frame and write it as compact text
+     */
+    public static String encode(byte[]... fields) {
+        if (fields.length > MAX_FIELDS) {
+            throw new IllegalArgumentException("Too many fields: " + fields.length);
+        }
+        int size = 1;
+        for (int i = 0; i < fields.length; i++) {
+            size += varintSize(fields[i].length) + fields[i].length;
+        }
+        int padding = -size & 3;
+        byte[] frame = new byte[size + padding];
+
+        int pos = 0;
+        frame[pos++] = (byte) (VERSION << 6 | padding << 4 | fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            pos = writeVarint(frame, pos, fields[i].length);
+            System.arraycopy(fields[i], 0, frame, pos, fields[i].length);
+            pos += fields[i].length;
+        }
+        return PREFIX + z85Encode(frame);
+    }
+
+    /**
+     * Read the fields of a compact value, or a legacy Base64 value as a single field
+     */
+    public static byte[][] decode(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+        if (!isCompact(value)) {
+            return new byte[][]{Base64.decode(value.trim(), Base64.NO_WRAP)};
+        }
+
+        byte[] frame = z85Decode(value, PREFIX.length());
+        int version = frame.length > 0 ? (frame[0] & 0xFF) >>> 6 : -1;
+        if (version != VERSION && version != VERSION_OPEN_ENDED) {
+            throw new IllegalArgumentException("Unsupported frame version");
+        }
+        int end = frame.length - (frame[0] >>> 4 & 3);
+        int count = frame[0] & 0x0F;
+        int[] pos = {1};
+        byte[][] fields = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int length = version == VERSION || i < count - 1 ? readVarint(frame, pos) : end - pos[0];
+            if (length < 0 || pos[0] + length > end) {
+                throw new IllegalArgumentException("Truncated frame");
+            }
+            fields[i] = Arrays.copyOfRange(frame, pos[0], pos[0] + length);
+            pos[0] += length;
+        }
+        if (pos[0] != end) {
+            throw new IllegalArgumentException("Frame size does not match its fields");
+        }
+        return fields;
+    }
+
+    /**
+     * The only field of a single-field value
+     */
+    public static byte[] decodeSingle(String value) {
+        byte[][] fields = decode(value);
+        if (fields.length != 1) {
+            throw new IllegalArgumentException("Expected one field, found " + fields.length);
+        }
+        return fields[0];
+    }
+
+    private static String z85Encode(byte[] data) {
+        char[] out = new char[data.length / 4 * 5];
+        int o = 0;
+        for (int i = 0; i < data.length; i += 4) {
+            long value = ((data[i] & 0xFFL) << 24) | ((data[i + 1] & 0xFF) << 16)
+                    | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+            for (int j = 4; j >= 0; j--) {
+                out[o + j] = ALPHABET[(int) (value % 85)];
+                value /= 85;
+            }
+            o += 5;
+        }
+        return new String(out);
+    }
+
+    private static byte[] z85Decode(String text, int start) {
+        int length = text.length() - start;
+        if (length % 5 != 0) {
+            throw new IllegalArgumentException("Invalid Z85 length");
+        }
+        byte[] out = new byte[length / 5 * 4];
+        int o = 0;
+        for (int i = start; i < text.length(); i += 5) {
+            long value = 0;
+            for (int j = 0; j < 5; j++) {
+                char c = text.charAt(i + j);
+                int digit = c < 128 ? DIGITS[c] : -1;
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Invalid Z85 character");
+                }
+                value = value * 85 + digit;
+            }
+            if (value > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("Invalid Z85 group");
+            }
+            out[o++] = (byte) (value >>> 24);
+            out[o++] = (byte) (value >>> 16);
+            out[o++] = (byte) (value >>> 8);
+            out[o++] = (byte) value;
+        }
+        return out;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= in.length) {
+                throw new IllegalArgumentException("Truncated frame");
+            }
+            byte b = in[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed length");
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.whatsappclone.utils;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends multi-path updates to the database root, coalescing bursts into one write
+ *
+ * Each operation is a map of absolute paths to values that is applied atomically
+ * (e.g. a message's envelope, both room entries and both summaries). While no
+ * write is in flight an operation goes out immediately; operations submitted
+ * while one is in flight are merged and sent together when it completes, so a
+ * burst of sends costs one round trip after the first instead of one each.
+ *
+ * Operations that write the same path merge as if applied in turn: the later
+ * value wins and ServerValue.increment()s add up, so consecutive sends in one
+ * chat share a write even though both update its conversation summaries.
+ * Operations that touch nested paths are never merged, since one would replace
+ * the other's subtree. If a merged write fails, its operations are retried one
+ * by one so a single rejected operation does not take the others down with it.
+ *
+ * All methods are called on the main thread, where Firebase delivers its callbacks.
+ */
+public class WriteBatcher {
+    /**
+     * Receives the outcome of one operation
+     */
+    public interface Callback {
+        /**
+         * @param error null if the operation was written
+         */
+        void onComplete(Exception error);
+    }
+
+    /**
+     * The database refused the write, e.g. its security rules deny it; writing the
+     * same data again cannot succeed
+     */
+    public static final class RejectedException extends Exception {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Applies one multi-path update atomically
+     */
+    public interface Sink {
+        void write(Map<String, Object> updates, Callback done);
+    }
+
+    private static final class Operation {
+        final Map<String, Object> updates;
+        final Callback callback;
+
+        Operation(Map<String, Object> updates, Callback callback) {
+            this.updates = updates;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Batch {
+        final List<Operation> operations = new ArrayList<>();
+        final Map<String, Object> updates = new HashMap<>();
+        final boolean alone;
+
+        Batch(boolean alone) {
+            this.alone = alone;
+        }
+
+        boolean accepts(Operation operation) {
+            if (alone) {
+                return false;
+            }
+            for (Map.Entry<String, Object> update : operation.updates.entrySet()) {
+                String path = update.getKey();
+                if (updates.containsKey(path)) {
+                    if (combine(updates.get(path), update.getValue()) == UNMERGEABLE) {
+                        return false;
+                    }
+                    continue;
+                }
+                for (String taken : updates.keySet()) {
+                    if (overlaps(path, taken)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void add(Operation operation) {
+            operations.add(operation);
+            for (Map.Entry<String, Object> update : operation.updates.entrySet()) {
+                String path = update.getKey();
+                updates.put(path, updates.containsKey(path)
+                        ? combine(updates.get(path), update.getValue()) : update.getValue());
+            }
+        }
+    }
+
+    private static final Object UNMERGEABLE = new Object();
+
+    private static volatile WriteBatcher instance;
+
+    public static WriteBatcher getInstance() {
+        if (instance == null) {
+            synchronized (WriteBatcher.class) {
+                if (instance == null) {
+                    DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+                    instance = new WriteBatcher((updates, done) -> root.updateChildren(updates, (error, ref) -> {
+                        if (error == null) {
+                            done.onComplete(null);
+                        } else if (error.getCode() == DatabaseError.PERMISSION_DENIED) {
+                            done.onComplete(new RejectedException(error.getMessage()));
+                        } else {
+                            done.onComplete(error.toException());
+                        }
+                    }));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final Sink sink;
+    private final ArrayDeque<Batch> pending = new ArrayDeque<>();
+    private boolean inFlight;
+    private long operations;
+    private long writes;
+
+    public WriteBatcher(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Apply the updates atomically, possibly in the same write as other operations
+     *
+     * @param updates  absolute paths (without a leading '/') to values
+     * @param callback told the outcome on the main thread; may be null
+     */
+    public void submit(Map<String, Object> updates, Callback callback) {
+        operations++;
+        Operation operation = new Operation(new HashMap<>(updates), callback);
+        Batch last = pending.peekLast();
+        if (last == null || !last.accepts(operation)) {
+            last = new Batch(false);
+            pending.addLast(last);
+        }
+        last.add(operation);
+        flush();
+    }
+
+    /**
+     * Operations submitted so far
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * Writes sent so far; fewer than operations when bursts were merged
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    private void flush() {
+        if (inFlight || pending.isEmpty()) {
+            return;
+        }
+        Batch batch = pending.pollFirst();
+        inFlight = true;
+        writes++;
+        sink.write(batch.updates, error -> {
+            inFlight = false;
+            if (error != null && batch.operations.size() > 1) {
+                // Retry separately, ahead of anything submitted since, in their original order
+                for (int i = batch.operations.size() - 1; i >= 0; i--) {
+                    Batch single = new Batch(true);
+                    single.add(batch.operations.get(i));
+                    pending.addFirst(single);
+                }
+            } else {
+                for (Operation operation : batch.operations) {
+                    if (operation.callback != null) {
+                        operation.callback.onComplete(error);
+                    }
+                }
+            }
+            flush();
+        });
+    }
+
+    /**
+     * The value a path ends up with when two operations write it in turn
+     *
+     * @return UNMERGEABLE if an increment follows a value that is not a number
+     */
+    private static Object combine(Object earlier, Object later) {
+        Long delta = incrementOf(later);
+        if (delta == null) {
+            return later;
+        }
+        Long earlierDelta = incrementOf(earlier);
+        if (earlierDelta != null) {
+            return increment(earlierDelta + delta);
+        }
+        if (earlier instanceof Long || earlier instanceof Integer) {
+            return ((Number) earlier).longValue() + delta;
+        }
+        return UNMERGEABLE;
+    }
+
+    /**
+     * @return the delta of a ServerValue.increment() placeholder, or null for any other value
+     */
+    static Long incrementOf(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Object sv = ((Map<?, ?>) value).get(".sv");
+        if (!(sv instanceof Map)) {
+            return null;
+        }
+        Object delta = ((Map<?, ?>) sv).get("increment");
+        return delta instanceof Number ? ((Number) delta).longValue() : null;
+    }
+
+    static Map<String, Object> increment(long delta) {
+        return Collections.singletonMap(".sv", (Object) Collections.singletonMap("increment", delta));
+    }
+
+    private static boolean overlaps(String a, String b) {
+        if (a.length() == b.length()) {
+            return a.equals(b);
+        }
+        String shorter = a.length() < b.length() ? a : b;
+        String longer = a.length() < b.length() ? b : a;
+        return longer.startsWith(shorter) && longer.charAt(shorter.length()) == '/';
+    }
+}
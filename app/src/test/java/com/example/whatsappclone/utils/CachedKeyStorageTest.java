@@ -0,0 +1,55 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+
+import static org.junit.Assert.*;
+
+public class CachedKeyStorageTest {
+
+    @Test
+    public void softwareStorageRoundTripsKeyPair() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        KeyPair keyPair = new SoftwareKeyStorage(prefs).generate();
+
+        SoftwareKeyStorage reopened = new SoftwareKeyStorage(prefs);
+        assertTrue(reopened.hasKeys());
+        assertEquals(keyPair.getPrivate(), reopened.loadPrivateKey());
+        assertEquals(keyPair.getPublic(), reopened.loadPublicKey());
+    }
+
+    @Test
+    public void loadsEachKeyOnce() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        new SoftwareKeyStorage(prefs).generate();
+
+        CachedKeyStorage storage = new CachedKeyStorage(new SoftwareKeyStorage(prefs));
+        PrivateKey first = storage.loadPrivateKey();
+        assertNotNull(first);
+        assertSame(first, storage.loadPrivateKey());
+        assertSame(storage.loadPublicKey(), storage.loadPublicKey());
+    }
+
+    @Test
+    public void generateReplacesCachedKeys() throws Exception {
+        CachedKeyStorage storage = new CachedKeyStorage(new SoftwareKeyStorage(new InMemorySharedPreferences()));
+        assertNull(storage.loadPrivateKey());
+
+        KeyPair keyPair = storage.generate();
+        assertSame(keyPair.getPrivate(), storage.loadPrivateKey());
+        assertSame(keyPair.getPublic(), storage.loadPublicKey());
+    }
+
+    @Test
+    public void clearForgetsCachedKeys() throws Exception {
+        CachedKeyStorage storage = new CachedKeyStorage(new SoftwareKeyStorage(new InMemorySharedPreferences()));
+        storage.generate();
+        storage.clear();
+
+        assertFalse(storage.hasKeys());
+        assertNull(storage.loadPrivateKey());
+        assertNull(storage.loadPublicKey());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.whatsappclone.utils;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.example.whatsappclone.Models.Users;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConversationIndexTest {
+
+    private final List<String> events = new ArrayList<>();
+    private final ArrayList<Users> list = new ArrayList<>();
+    private final ConversationIndex index = new ConversationIndex(list, new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("insert " + position);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("remove " + position);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("move " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("change " + position);
+        }
+    });
+
+    private static Users user(String userId, Long lastMessageTime) {
+        Users user = new Users();
+        user.setUserId(userId);
+        user.setLastMessageTime(lastMessageTime);
+        return user;
+    }
+
+    private String order() {
+        StringBuilder builder = new StringBuilder();
+        for (Users user : list) {
+            builder.append(user.getUserId());
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void keepsMostRecentFirstWithIdTieBreak() {
+        index.put(user("b", null));
+        index.put(user("a", 10L));
+        index.put(user("c", 20L));
+        index.put(user("a2", null));
+
+        assertEquals("caa2b", order());
+    }
+
+    @Test
+    public void movesOnlyTheUpdatedRow() {
+        index.put(user("a", 30L));
+        index.put(user("b", 20L));
+        index.put(user("c", 10L));
+        events.clear();
+
+        assertTrue(index.setTime("c", 40L));
+
+        assertEquals("cab", order());
+        assertEquals("[move 2 0, change 0]", events.toString());
+    }
+
+    @Test
+    public void sameTimeIsAnInPlaceChange() {
+        index.put(user("a", 30L));
+        index.put(user("b", 20L));
+        events.clear();
+
+        index.put(user("b", 20L));
+        index.remove("a");
+
+        assertEquals("b", order());
+        assertEquals("[change 1, remove 0]", events.toString());
+        assertFalse(index.setTime("a", 50L));
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.*;
+
+public class CryptoContextTest {
+
+    @Test
+    public void reusesCipherOnSameThread() throws Exception {
+        Cipher first = CryptoContext.cipher("AES/GCM/NoPadding");
+        long reused = CryptoContext.getStats().getReused();
+
+        assertSame(first, CryptoContext.cipher("AES/GCM/NoPadding"));
+        assertNotSame(first, CryptoContext.cipher("AES/CBC/PKCS5Padding"));
+        // Other tests on this thread may have used the same transformations, so only a lower bound holds
+        assertTrue(CryptoContext.getStats().getReused() > reused);
+    }
+
+    @Test
+    public void givesEachThreadItsOwnInstances() throws Exception {
+        Cipher mine = CryptoContext.cipher("AES/GCM/NoPadding");
+        AtomicReference<Cipher> theirs = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                theirs.set(CryptoContext.cipher("AES/GCM/NoPadding"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNotNull(theirs.get());
+        assertNotSame(mine, theirs.get());
+    }
+
+    @Test
+    public void reusesSecureRandomAndKeyFactory() throws Exception {
+        assertSame(CryptoContext.secureRandom(), CryptoContext.secureRandom());
+        assertSame(CryptoContext.keyFactory("RSA"), CryptoContext.keyFactory("RSA"));
+        assertTrue(CryptoContext.getStats().getCreated() > 0);
+    }
+}
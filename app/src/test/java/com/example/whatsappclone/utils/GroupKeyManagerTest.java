@@ -0,0 +1,77 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class GroupKeyManagerTest {
+
+    private static KeyPair keyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    @Test
+    public void wrapsOneCopyPerMemberThatOnlyTheyCanUnwrap() throws Exception {
+        KeyPair alice = keyPair();
+        KeyPair bob = keyPair();
+        Map<String, PublicKey> publicKeys = new HashMap<>();
+        publicKeys.put("alice", alice.getPublic());
+        publicKeys.put("bob", bob.getPublic());
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        SecretKey groupKey = generator.generateKey();
+
+        Map<String, String> wrapped = GroupKeyManager.wrap(groupKey, publicKeys);
+
+        assertEquals(2, wrapped.size());
+        assertArrayEquals(groupKey.getEncoded(),
+                HybridEncryption.unwrapKey(wrapped.get("alice"), alice.getPrivate()).getEncoded());
+        assertArrayEquals(groupKey.getEncoded(),
+                HybridEncryption.unwrapKey(wrapped.get("bob"), bob.getPrivate()).getEncoded());
+        try {
+            HybridEncryption.unwrapKey(wrapped.get("alice"), bob.getPrivate());
+            fail("Unwrapped another member's copy");
+        } catch (Exception expected) {
+            // OAEP rejects a key wrapped for someone else
+        }
+    }
+
+    @Test
+    public void putKeyWritesEveryCopyAndMakesItCurrent() {
+        Map<String, String> wrapped = new HashMap<>();
+        wrapped.put("alice", "wa");
+        wrapped.put("bob", "wb");
+        Map<String, Object> updates = new HashMap<>();
+
+        GroupKeyManager.putKey(updates, "g1", "k1", wrapped);
+
+        assertEquals(3, updates.size());
+        assertEquals("wa", updates.get("GroupKeys/g1/keys/k1/alice"));
+        assertEquals("wb", updates.get("GroupKeys/g1/keys/k1/bob"));
+        assertEquals("k1", updates.get("GroupKeys/g1/current"));
+    }
+
+    @Test
+    public void sharedCopiesLeaveTheCurrentKeyAlone() {
+        Map<String, String> wrapped = new HashMap<>();
+        wrapped.put("carol", "wc");
+        Map<String, Object> updates = new HashMap<>();
+
+        GroupKeyManager.putCopies(updates, "global", "k1", wrapped);
+
+        assertEquals(1, updates.size());
+        assertEquals("wc", updates.get("GroupKeys/global/keys/k1/carol"));
+        assertFalse(updates.containsKey("GroupKeys/global/current"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.whatsappclone.utils;
+
+import com.example.whatsappclone.Models.GroupInfo;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GroupsTest {
+
+    @Test
+    public void globalGroupKeepsItsOldRoom() {
+        assertEquals("Group Chat", Groups.roomOf(Groups.GLOBAL_ID));
+        assertEquals("groupMessages/g1", Groups.roomOf("g1"));
+    }
+
+    @Test
+    public void onlyTheGlobalGroupIsOpen() {
+        assertTrue(Groups.isOpen(Groups.GLOBAL_ID));
+        assertFalse(Groups.isOpen("g1"));
+    }
+
+    @Test
+    public void memberIsWrittenToTheGroupAndTheirIndex() {
+        Map<String, Object> updates = new HashMap<>();
+        Groups.putMember(updates, "g1", "alice", true);
+
+        assertEquals(2, updates.size());
+        assertEquals(Boolean.TRUE, updates.get("groups/g1/members/alice"));
+        assertEquals(Boolean.TRUE, updates.get("userGroups/alice/g1"));
+    }
+
+    @Test
+    public void removedMemberIsDeletedFromBoth() {
+        Map<String, Object> updates = new HashMap<>();
+        Groups.putMember(updates, "g1", "bob", false);
+
+        assertTrue(updates.containsKey("groups/g1/members/bob"));
+        assertTrue(updates.containsKey("userGroups/bob/g1"));
+        assertNull(updates.get("groups/g1/members/bob"));
+        assertNull(updates.get("userGroups/bob/g1"));
+    }
+
+    @Test
+    public void lastMessageGoesToTheGroupInfoOnly() {
+        Map<String, Object> updates = new HashMap<>();
+        Groups.putLastMessage(updates, "g1", "alice", "z:cipher", "k1", 42L);
+
+        assertEquals(4, updates.size());
+        assertEquals("z:cipher", updates.get("groups/g1/info/lastMessage"));
+        assertEquals("k1", updates.get("groups/g1/info/keyId"));
+        assertEquals("alice", updates.get("groups/g1/info/senderId"));
+        assertEquals(42L, updates.get("groups/g1/info/timestamp"));
+    }
+
+    @Test
+    public void nameFallsBackForGroupsWithoutOne() {
+        GroupInfo named = new GroupInfo();
+        named.setName("Climbing");
+
+        assertEquals("Climbing", Groups.nameOf("g1", named));
+        assertEquals(Groups.GLOBAL_NAME, Groups.nameOf(Groups.GLOBAL_ID, new GroupInfo()));
+        assertEquals("Group", Groups.nameOf("g1", null));
+    }
+}
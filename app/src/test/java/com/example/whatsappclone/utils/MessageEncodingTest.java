@@ -0,0 +1,70 @@
+package com.example.whatsappclone.utils;
+
+import com.example.whatsappclone.Models.MessageModel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageEncodingTest {
+
+    private static MessageModel message(String body) {
+        return new MessageModel("uid", body);
+    }
+
+    @Test
+    public void markerWinsOverTheBody() {
+        MessageModel model = message("hello");
+        model.setEncoding(MessageEncoding.AES_GCM.code());
+        assertEquals(MessageEncoding.AES_GCM, MessageEncoding.of(model));
+    }
+
+    @Test
+    public void unknownMarkerIsNotGuessed() {
+        MessageModel model = message("hello");
+        model.setEncoding(42);
+        assertNull(MessageEncoding.of(model));
+    }
+
+    @Test
+    public void classifiesLegacyRowsByShape() {
+        assertEquals(MessageEncoding.PLAINTEXT, MessageEncoding.of(message("see you at 8?")));
+        assertEquals(MessageEncoding.PLAINTEXT, MessageEncoding.of(message(null)));
+        assertEquals(MessageEncoding.AES_GCM, MessageEncoding.of(message("z:abcde")));
+        assertEquals(MessageEncoding.AES_GCM, MessageEncoding.of(message("v2:AAAA")));
+        assertEquals(MessageEncoding.AES_CBC,
+                MessageEncoding.of(message("q83vEjRWeJCrze8SNFZ4kKvN7xI0VniQq83vEjRWeJA=")));
+
+        MessageModel hybrid = new MessageModel("uid", null, "wrapped");
+        assertEquals(MessageEncoding.HYBRID, MessageEncoding.of(hybrid));
+    }
+
+    @Test
+    public void longTextWithoutSpacesIsNotMistakenForCbc() {
+        // Right length, but '.' and '!' are not Base64
+        assertEquals(MessageEncoding.PLAINTEXT,
+                MessageEncoding.of(message("hahahahahahahahahahahahahahahahahahahahaha.!")));
+        // Padding only at the end
+        assertEquals(MessageEncoding.PLAINTEXT,
+                MessageEncoding.of(message("q83vEjRWeJCrze8SNFZ4kKvN7x=0VniQq83vEjRWeJAA")));
+    }
+
+    @Test
+    public void onlyUnmarkedBodiesAreGuessed() {
+        assertTrue(MessageEncoding.isGuessed(message("z:not actually compressed")));
+        assertTrue(MessageEncoding.isGuessed(message("q83vEjRWeJCrze8SNFZ4kKvN7xI0VniQq83vEjRWeJA=")));
+
+        MessageModel marked = message("z:abcde");
+        marked.setEncoding(MessageEncoding.AES_GCM.code());
+        assertFalse(MessageEncoding.isGuessed(marked));
+        assertFalse(MessageEncoding.isGuessed(new MessageModel("uid", "cipher", "wrapped")));
+        assertFalse(MessageEncoding.isGuessed(message(null)));
+    }
+
+    @Test
+    public void codesRoundTrip() {
+        for (MessageEncoding encoding : MessageEncoding.values()) {
+            assertEquals(encoding, MessageEncoding.fromCode(encoding.code()));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class MessageTimeFormatterTest {
+    // 2024-03-10 00:00 in Berlin (UTC+1)
+    private static final long BERLIN_MIDNIGHT = 1710025200000L;
+
+    private Locale locale;
+    private TimeZone zone;
+
+    @Before
+    public void setUp() {
+        locale = Locale.getDefault();
+        zone = TimeZone.getDefault();
+        Locale.setDefault(Locale.US);
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        MessageTimeFormatter.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(locale);
+        TimeZone.setDefault(zone);
+        MessageTimeFormatter.clearCache();
+    }
+
+    @Test
+    public void dayChangesAtLocalMidnight() {
+        assertEquals(20240309, MessageTimeFormatter.dayKey(BERLIN_MIDNIGHT - 1));
+        assertEquals(20240310, MessageTimeFormatter.dayKey(BERLIN_MIDNIGHT));
+        assertEquals(0, MessageTimeFormatter.dayKey(null));
+    }
+
+    @Test
+    public void timeIsTruncatedToTheMinute() {
+        assertEquals("12:00 AM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT));
+        assertEquals("12:00 AM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT + 59_999));
+        assertEquals("12:01 AM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT + 60_000));
+        assertEquals("11:59 PM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT - 1));
+        assertEquals("", MessageTimeFormatter.formatTime(null));
+    }
+
+    @Test
+    public void timesBeforeTheEpochRoundDown() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        MessageTimeFormatter.clearCache();
+
+        assertEquals("11:59 PM", MessageTimeFormatter.formatTime(-1L));
+        assertEquals(19691231, MessageTimeFormatter.dayKey(-1L));
+    }
+
+    @Test
+    public void clearCacheFollowsANewTimeZone() {
+        assertEquals("12:00 AM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        MessageTimeFormatter.clearCache();
+
+        assertEquals("11:00 PM", MessageTimeFormatter.formatTime(BERLIN_MIDNIGHT));
+        assertEquals(20240309, MessageTimeFormatter.dayKey(BERLIN_MIDNIGHT));
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.whatsappclone.utils;
+
+import com.example.whatsappclone.Models.MessageModel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private final Map<String, OutboundQueue.Entry> journaled = new LinkedHashMap<>();
+    private final List<Map<String, Object>> written = new ArrayList<>();
+    private final List<WriteBatcher.Callback> inFlight = new ArrayList<>();
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<String> states = new ArrayList<>();
+    private OutboundQueue queue;
+
+    @Before
+    public void setUp() {
+        OutboundQueue.Journal journal = new OutboundQueue.Journal() {
+            @Override
+            public List<OutboundQueue.Entry> loadAll() {
+                return new ArrayList<>(journaled.values());
+            }
+
+            @Override
+            public void save(OutboundQueue.Entry entry) {
+                journaled.put(entry.messageId, entry);
+            }
+
+            @Override
+            public void delete(List<String> messageIds) {
+                journaled.keySet().removeAll(messageIds);
+            }
+
+            @Override
+            public void clear() {
+                journaled.clear();
+            }
+        };
+        WriteBatcher batcher = new WriteBatcher((updates, done) -> {
+            written.add(updates);
+            inFlight.add(done);
+        });
+        queue = new OutboundQueue(journal, Runnable::run, (task, delayMillis) -> scheduled.add(task), batcher);
+        queue.addListener((room, messageId, state) -> states.add(messageId + ":" + state));
+    }
+
+    private static OutboundQueue.Entry message(String room, String messageId) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(room + "/" + messageId, messageId);
+        updates.put("Conversations/" + room + "/lastMessage", messageId);
+        updates.put("Conversations/" + room + "/unreadCount",
+                Collections.singletonMap(".sv", Collections.singletonMap("increment", 1L)));
+        return new OutboundQueue.Entry(room, messageId, "me", "text " + messageId, 0L, updates);
+    }
+
+    private void complete(Exception error) {
+        inFlight.remove(0).onComplete(error);
+    }
+
+    @Test
+    public void waitsForTheJournalBeforeSending() {
+        queue.enqueue(message("r", "m1"));
+
+        assertTrue(written.isEmpty());
+        assertTrue(journaled.containsKey("m1"));
+        assertEquals("[m1:PENDING]", states.toString());
+
+        queue.restore(Collections.emptyList());
+        assertEquals(1, written.size());
+        complete(null);
+
+        assertFalse(journaled.containsKey("m1"));
+        assertTrue(queue.pending("r").isEmpty());
+        assertEquals("[m1:PENDING, m1:SENT]", states.toString());
+    }
+
+    @Test
+    public void sendsMessagesQueuedBehindAWriteAsOneUpdate() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        queue.enqueue(message("r", "m2"));
+        queue.enqueue(message("r", "m3"));
+        assertEquals(1, written.size());
+
+        complete(null);
+        assertEquals(2, written.size());
+        Map<String, Object> merged = written.get(1);
+        assertEquals("m2", merged.get("r/m2"));
+        assertEquals("m3", merged.get("r/m3"));
+        assertEquals("m3", merged.get("Conversations/r/lastMessage"));
+        assertEquals(Collections.singletonMap(".sv", Collections.singletonMap("increment", 2L)),
+                merged.get("Conversations/r/unreadCount"));
+    }
+
+    @Test
+    public void roomsDrainIndependently() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("a", "m1"));
+        queue.enqueue(message("b", "m2"));
+
+        complete(null);
+        assertEquals(2, written.size());
+        assertTrue(written.get(1).containsKey("b/m2"));
+    }
+
+    @Test
+    public void retriesFailedMessagesInOrderAfterBackoff() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        complete(new Exception("offline"));
+        queue.enqueue(message("r", "m2"));
+
+        assertEquals(1, written.size());
+        assertEquals(OutboundQueue.State.FAILED, queue.getState("r", "m1"));
+        assertEquals(1, journaled.get("m1").getAttempts());
+        assertEquals(1, scheduled.size());
+
+        scheduled.remove(0).run();
+        assertEquals(2, written.size());
+        assertTrue(written.get(1).containsKey("r/m1"));
+        assertTrue(written.get(1).containsKey("r/m2"));
+        complete(null);
+
+        assertEquals(OutboundQueue.State.SENT, queue.getState("r", "m1"));
+        assertTrue(journaled.isEmpty());
+    }
+
+    @Test
+    public void retryNowSkipsTheBackoff() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        complete(new Exception("offline"));
+
+        queue.retryNow();
+        assertEquals(2, written.size());
+        complete(null);
+
+        // The cancelled retry finds nothing to do
+        scheduled.remove(0).run();
+        assertEquals(2, written.size());
+    }
+
+    @Test
+    public void restoresJournaledMessagesAheadOfNewOnes() {
+        journaled.put("old", message("r", "old"));
+        queue.enqueue(message("r", "new"));
+
+        queue.restore(new ArrayList<>(journaled.values()));
+        assertEquals(2, queue.pending("r").size());
+        assertEquals("old", queue.pending("r").get(0).getMessageId());
+        assertEquals("new", queue.pending("r").get(1).getMessageId());
+    }
+
+    @Test
+    public void backoffGrowsAndIsCapped() {
+        long first = queue.backoff(0);
+        long fifth = queue.backoff(4);
+        assertTrue(first >= 500 && first <= 1000);
+        assertTrue(fifth >= 8000 && fifth <= 16000);
+        assertTrue(queue.backoff(30) <= 5 * 60 * 1000);
+    }
+
+    @Test
+    public void rejectedMessageIsNotRetriedAndDoesNotHoldUpTheRoom() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        queue.enqueue(message("r", "m2"));
+        complete(new WriteBatcher.RejectedException("denied"));
+
+        assertEquals(OutboundQueue.State.REJECTED, queue.getState("r", "m1"));
+        assertTrue(scheduled.isEmpty());
+        assertTrue(journaled.containsKey("m1"));
+        assertEquals(2, written.size());
+        assertTrue(written.get(1).containsKey("r/m2"));
+        complete(null);
+        assertEquals(OutboundQueue.State.SENT, queue.getState("r", "m2"));
+
+        queue.resend("m1");
+        assertEquals(3, written.size());
+        assertTrue(written.get(2).containsKey("r/m1"));
+        complete(null);
+        assertEquals(OutboundQueue.State.SENT, queue.getState("r", "m1"));
+        assertTrue(journaled.isEmpty());
+    }
+
+    @Test
+    public void findsTheRejectedMessageOfAMergedWrite() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        queue.enqueue(message("r", "m2"));
+        queue.enqueue(message("r", "m3"));
+        complete(null);
+        complete(new WriteBatcher.RejectedException("denied"));
+
+        // Sent one by one until the rejected one is found
+        assertEquals(3, written.size());
+        assertEquals(setOf("r/m2", "Conversations/r/lastMessage", "Conversations/r/unreadCount"),
+                written.get(2).keySet());
+        complete(null);
+        assertEquals(4, written.size());
+        assertTrue(written.get(3).containsKey("r/m3"));
+        complete(new WriteBatcher.RejectedException("denied"));
+
+        assertEquals(OutboundQueue.State.SENT, queue.getState("r", "m2"));
+        assertEquals(OutboundQueue.State.REJECTED, queue.getState("r", "m3"));
+        assertEquals(1, queue.pending("r").size());
+        assertTrue(scheduled.isEmpty());
+
+        queue.discard("m3");
+        assertTrue(queue.pending("r").isEmpty());
+        assertTrue(journaled.isEmpty());
+    }
+
+    @Test
+    public void clearForgetsEverythingQueuedAndIgnoresWritesInFlight() {
+        queue.restore(Collections.emptyList());
+        queue.enqueue(message("r", "m1"));
+        queue.enqueue(message("r", "m2"));
+        queue.enqueue(message("s", "m3"));
+        complete(new IllegalStateException("offline"));
+
+        queue.clear();
+        states.clear();
+        assertTrue(journaled.isEmpty());
+        assertTrue(queue.pending("r").isEmpty());
+        assertTrue(queue.pending("s").isEmpty());
+
+        complete(null);
+        scheduled.remove(0).run();
+        assertEquals(2, written.size());
+        assertTrue(states.isEmpty());
+    }
+
+    @Test
+    public void restoredEntryIsRebuiltFromItsEncryptedUpdate() {
+        Map<String, Object> roomEntry = new HashMap<>();
+        roomEntry.put("uid", "me");
+        roomEntry.put("encryptedSessionKey", "z:key");
+        roomEntry.put("envelopeId", "m1");
+        roomEntry.put("encoding", MessageEncoding.HYBRID.code());
+        roomEntry.put("timestamp", 5L);
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("chats/ab/m1", roomEntry);
+        updates.put("envelopes/m1/body", "z:body");
+        OutboundQueue.Entry entry = new OutboundQueue.Entry("chats/ab", "m1", "me", null, 5L, updates);
+
+        MessageModel stored = entry.toStoredMessage();
+
+        assertFalse(entry.hasBody());
+        assertEquals("m1", stored.getMessageId());
+        assertEquals("z:body", stored.getMessage());
+        assertEquals("z:key", stored.getEncryptedSessionKey());
+        assertEquals(Integer.valueOf(MessageEncoding.HYBRID.code()), stored.getEncoding());
+    }
+
+    private static Set<String> setOf(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
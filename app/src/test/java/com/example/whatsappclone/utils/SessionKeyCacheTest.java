@@ -0,0 +1,53 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+public class SessionKeyCacheTest {
+
+    private static SecretKey key(int seed) {
+        byte[] bytes = new byte[32];
+        bytes[0] = (byte) seed;
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        SessionKeyCache cache = new SessionKeyCache();
+        assertNull(cache.get("a"));
+        cache.put("a", key(1));
+        assertEquals(key(1), cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenOverBudget() {
+        // Budget fits two entries
+        SessionKeyCache cache = new SessionKeyCache(300);
+        cache.put("a", key(1));
+        cache.put("b", key(2));
+        cache.get("a"); // "b" is now the eldest
+        cache.put("c", key(3));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getSizeBytes() <= 300);
+    }
+
+    @Test
+    public void clearDropsAllEntries() {
+        SessionKeyCache cache = new SessionKeyCache();
+        cache.put("a", key(1));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+        assertNull(cache.get("a"));
+    }
+}
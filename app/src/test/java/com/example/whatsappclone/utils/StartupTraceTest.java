@@ -0,0 +1,36 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+
+    private long now;
+
+    @Test
+    public void recordsSpansAndMarksRelativeToOrigin() {
+        now = 1000;
+        StartupTrace trace = new StartupTrace(() -> now, 900);
+
+        StartupTrace.Span span = trace.begin("MainActivity.onCreate");
+        now = 1040;
+        trace.mark("keys ready");
+        now = 1100;
+        span.end();
+
+        String timeline = trace.dump();
+        assertTrue(timeline, timeline.contains("    140          keys ready"));
+        assertTrue(timeline, timeline.contains("    100    +100  MainActivity.onCreate"));
+    }
+
+    @Test
+    public void endingASpanTwiceRecordsItOnce() {
+        StartupTrace trace = new StartupTrace(() -> now, 0);
+        StartupTrace.Span span = trace.begin("span");
+        span.end();
+        span.end();
+
+        assertEquals(1, trace.dump().split("span").length - 1);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UserProfilesTest {
+
+    @Test
+    public void mailKeyIgnoresCaseAndSurroundingSpace() {
+        assertEquals(UserProfiles.mailKey("alice@example.com"), UserProfiles.mailKey(" Alice@Example.COM "));
+    }
+
+    @Test
+    public void mailKeyEscapesCharactersKeysCannotHold() {
+        assertEquals("a%2Eb%23c%24d%5Be%5Df%2Fg%25h@x%2Eio", UserProfiles.mailKey("a.b#c$d[e]f/g%h@x.io"));
+        // Escaping '%' keeps distinct addresses apart
+        assertNotEquals(UserProfiles.mailKey("a%2E@x.io"), UserProfiles.mailKey("a.@x.io"));
+    }
+
+    @Test
+    public void mailIsIndexedToTheAccount() {
+        Map<String, Object> updates = new HashMap<>();
+        UserProfiles.putMail(updates, "alice", "alice@example.com");
+        UserProfiles.putMail(updates, "bob", null);
+
+        assertEquals(1, updates.size());
+        assertEquals("alice", updates.get("MailIndex/alice@example%2Ecom"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WireCodecTest {
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void roundTripsFieldsOfEveryPaddingLength() {
+        for (int length = 0; length < 12; length++) {
+            byte[] field = bytes(length, length);
+            String encoded = WireCodec.encode(field);
+            assertTrue(WireCodec.isCompact(encoded));
+            assertArrayEquals(field, WireCodec.decodeSingle(encoded));
+        }
+    }
+
+    @Test
+    public void roundTripsSeveralFields() {
+        byte[] key = bytes(256, 1);
+        byte[] body = bytes(38, 2);
+        byte[][] fields = WireCodec.decode(WireCodec.encode(key, body));
+
+        assertEquals(2, fields.length);
+        assertArrayEquals(key, fields[0]);
+        assertArrayEquals(body, fields[1]);
+    }
+
+    @Test
+    public void isShorterThanBase64ForAWrappedKey() {
+        // Base64 of a 2048-bit RSA block is 344 characters
+        assertTrue(WireCodec.encode(bytes(256, 3)).length() < 344);
+    }
+
+    @Test
+    public void neverProducesCharactersThatNeedJsonEscaping() {
+        String encoded = WireCodec.encode(bytes(4096, 4));
+        assertEquals(-1, encoded.indexOf('"'));
+        assertEquals(-1, encoded.indexOf('\\'));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedText() {
+        String encoded = WireCodec.encode(bytes(40, 5));
+        WireCodec.decode(encoded.substring(0, encoded.length() - 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTextCutInsideAGroup() {
+        String encoded = WireCodec.encode(bytes(40, 5));
+        WireCodec.decode(encoded.substring(0, encoded.length() - 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTextWithAnExtraGroup() {
+        WireCodec.decode(WireCodec.encode(bytes(40, 5)) + "00000");
+    }
+
+    @Test
+    public void readsFramesWrittenBeforeTheLastFieldHadALength() {
+        byte[][] fields = WireCodec.decode("z:AS{b/y&13lz/PV8aPIGx");
+
+        assertEquals(2, fields.length);
+        assertEquals("hello", new String(fields[0]));
+        assertEquals("world!", new String(fields[1]));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.whatsappclone.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WriteBatcherTest {
+
+    private final List<Map<String, Object>> written = new ArrayList<>();
+    private final List<WriteBatcher.Callback> inFlight = new ArrayList<>();
+    private final WriteBatcher batcher = new WriteBatcher((updates, done) -> {
+        written.add(updates);
+        inFlight.add(done);
+    });
+
+    private static Map<String, Object> update(String... paths) {
+        Map<String, Object> updates = new HashMap<>();
+        for (String path : paths) {
+            updates.put(path, path);
+        }
+        return updates;
+    }
+
+    private void complete(Exception error) {
+        inFlight.remove(0).onComplete(error);
+    }
+
+    @Test
+    public void sendsFirstOperationImmediately() {
+        batcher.submit(update("chats/ab/1", "chats/ba/1"), null);
+
+        assertEquals(1, written.size());
+        assertEquals(update("chats/ab/1", "chats/ba/1"), written.get(0));
+    }
+
+    @Test
+    public void mergesOperationsSubmittedWhileAWriteIsInFlight() {
+        List<String> results = new ArrayList<>();
+        batcher.submit(update("chats/ab/1"), error -> results.add("1:" + error));
+        batcher.submit(update("chats/ab/2"), error -> results.add("2:" + error));
+        batcher.submit(update("chats/ab/3"), error -> results.add("3:" + error));
+        assertEquals(1, written.size());
+
+        complete(null);
+        assertEquals(2, written.size());
+        assertEquals(update("chats/ab/2", "chats/ab/3"), written.get(1));
+
+        complete(null);
+        assertEquals("[1:null, 2:null, 3:null]", results.toString());
+        assertEquals(3, batcher.getOperations());
+        assertEquals(2, batcher.getWrites());
+    }
+
+    @Test
+    public void mergesTheSamePathButNeverNestedOnes() {
+        batcher.submit(update("first"), null);
+        batcher.submit(update("Conversations/b/a/unreadCount"), null);
+        batcher.submit(update("Conversations/b/a/unreadCount"), null);
+        batcher.submit(update("Conversations/b/a"), null);
+        batcher.submit(update("Conversations/b/ab"), null);
+
+        for (int i = 0; i < 3; i++) {
+            complete(null);
+        }
+        assertEquals(3, written.size());
+        assertEquals(update("Conversations/b/a/unreadCount"), written.get(1));
+        assertEquals(update("Conversations/b/a", "Conversations/b/ab"), written.get(2));
+    }
+
+    @Test
+    public void sendsInOneChatMergeTheirSummaries() {
+        batcher.submit(update("first"), null);
+        Map<String, Object> second = new HashMap<>();
+        second.put("chats/ab/2", "m2");
+        second.put("Conversations/a/b/envelopeId", "2");
+        second.put("Conversations/b/a/envelopeId", "2");
+        second.put("Conversations/b/a/unreadCount", WriteBatcher.increment(1));
+        Map<String, Object> third = new HashMap<>();
+        third.put("chats/ab/3", "m3");
+        third.put("Conversations/a/b/envelopeId", "3");
+        third.put("Conversations/b/a/envelopeId", "3");
+        third.put("Conversations/b/a/unreadCount", WriteBatcher.increment(1));
+        batcher.submit(second, null);
+        batcher.submit(third, null);
+
+        complete(null);
+        assertEquals(2, written.size());
+        Map<String, Object> merged = written.get(1);
+        assertEquals("m2", merged.get("chats/ab/2"));
+        assertEquals("m3", merged.get("chats/ab/3"));
+        assertEquals("3", merged.get("Conversations/a/b/envelopeId"));
+        assertEquals("3", merged.get("Conversations/b/a/envelopeId"));
+        assertEquals(WriteBatcher.increment(2), merged.get("Conversations/b/a/unreadCount"));
+    }
+
+    @Test
+    public void anIncrementAppliesToTheNumberWrittenBeforeIt() {
+        batcher.submit(update("first"), null);
+        batcher.submit(Collections.singletonMap("unreadCount", (Object) 0L), null);
+        batcher.submit(Collections.singletonMap("unreadCount", (Object) WriteBatcher.increment(1)), null);
+        batcher.submit(Collections.singletonMap("name", (Object) "x"), null);
+        batcher.submit(Collections.singletonMap("name", (Object) WriteBatcher.increment(1)), null);
+
+        for (int i = 0; i < 2; i++) {
+            complete(null);
+        }
+        assertEquals(3, written.size());
+        assertEquals(1L, written.get(1).get("unreadCount"));
+        assertEquals("x", written.get(1).get("name"));
+        assertEquals(WriteBatcher.increment(1), written.get(2).get("name"));
+    }
+
+    @Test
+    public void retriesAFailedMergedWriteOneOperationAtATime() {
+        List<String> results = new ArrayList<>();
+        batcher.submit(update("first"), null);
+        batcher.submit(update("a"), error -> results.add("a:" + (error != null)));
+        batcher.submit(update("b"), error -> results.add("b:" + (error != null)));
+        complete(null);
+
+        complete(new Exception("denied"));
+        assertTrue(results.isEmpty());
+        assertEquals(update("a"), written.get(2));
+
+        complete(new Exception("denied"));
+        assertEquals(update("b"), written.get(3));
+        complete(null);
+
+        assertEquals("[a:true, b:false]", results.toString());
+    }
+}
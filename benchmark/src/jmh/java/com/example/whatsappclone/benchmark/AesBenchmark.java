@@ -0,0 +1,62 @@
+package com.example.whatsappclone.benchmark;
+
+import com.example.whatsappclone.utils.AESUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * AESUtils.encrypt/decrypt over message sizes from a short chat line to 64 KB,
+ * for the AES-GCM format and the legacy CBC format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AesBenchmark {
+
+    @Param({"10", "100", "1024", "16384", "65536"})
+    public int size;
+
+    private SecretKey key;
+    private String plainText;
+    private String cipherText;
+    private String cbcCipherText;
+
+    @Setup
+    public void setup() throws Exception {
+        key = AESUtils.generateKey();
+        plainText = Payloads.text(size);
+        cipherText = AESUtils.encrypt(plainText, key);
+        cbcCipherText = AESUtils.encryptCbc(plainText, key);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return AESUtils.encrypt(plainText, key);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return AESUtils.decrypt(cipherText, key);
+    }
+
+    @Benchmark
+    public String encryptCbc() throws Exception {
+        return AESUtils.encryptCbc(plainText, key);
+    }
+
+    @Benchmark
+    public String decryptCbc() throws Exception {
+        return AESUtils.decrypt(cbcCipherText, key);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.whatsappclone.benchmark;
+
+import com.example.whatsappclone.utils.HybridEncryption;
+import com.example.whatsappclone.utils.RSAKeyManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HybridEncryption.encrypt/decrypt; decryptCold pays the RSA unwrap on every
+ * call, decryptCached hits the session key cache like a re-rendered message does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HybridBenchmark {
+
+    @Param({"10", "100", "1024", "16384", "65536"})
+    public int size;
+
+    private KeyPair keyPair;
+    private KeyPair otherKeyPair;
+    private Map<String, PublicKey> recipients;
+    private String plainText;
+    private HybridEncryption.EncryptedMessage encrypted;
+
+    @Setup
+    public void setup() throws Exception {
+        keyPair = RSAKeyManager.generateKeyPair();
+        otherKeyPair = RSAKeyManager.generateKeyPair();
+        recipients = new HashMap<>();
+        recipients.put("me", keyPair.getPublic());
+        recipients.put("other", otherKeyPair.getPublic());
+        plainText = Payloads.text(size);
+        encrypted = HybridEncryption.encrypt(plainText, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public HybridEncryption.EncryptedMessage encrypt() throws Exception {
+        return HybridEncryption.encrypt(plainText, keyPair.getPublic());
+    }
+
+    /**
+     * The 1:1 send path before envelopes: a full hybrid encryption per participant
+     */
+    @Benchmark
+    public void encryptTwice(Blackhole blackhole) throws Exception {
+        blackhole.consume(HybridEncryption.encrypt(plainText, otherKeyPair.getPublic()));
+        blackhole.consume(HybridEncryption.encrypt(plainText, keyPair.getPublic()));
+    }
+
+    @Benchmark
+    public HybridEncryption.Envelope encryptEnvelope() throws Exception {
+        return HybridEncryption.encryptForRecipients(plainText, recipients);
+    }
+
+    @Benchmark
+    public String decryptCold() throws Exception {
+        HybridEncryption.clearSessionKeyCache();
+        return HybridEncryption.decrypt(encrypted, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String decryptCached() throws Exception {
+        return HybridEncryption.decrypt(encrypted, keyPair.getPrivate());
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.whatsappclone.benchmark;
+
+import com.example.whatsappclone.utils.AESUtils;
+import com.example.whatsappclone.utils.RSAKeyManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Key generation and the key <-> string conversions used for storage and Firebase
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KeyBenchmark {
+
+    private String publicKeyString;
+    private String aesKeyString;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair keyPair = RSAKeyManager.generateKeyPair();
+        publicKeyString = RSAKeyManager.publicKeyToString(keyPair.getPublic());
+        aesKeyString = AESUtils.keyToString(AESUtils.generateKey());
+    }
+
+    /**
+     * RSA-2048 generation takes tens to hundreds of milliseconds, so sample it as single shots
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public KeyPair generateRsaKeyPair() throws Exception {
+        return RSAKeyManager.generateKeyPair();
+    }
+
+    @Benchmark
+    public SecretKey generateAesKey() throws Exception {
+        return AESUtils.generateKey();
+    }
+
+    @Benchmark
+    public String publicKeyRoundTrip() {
+        PublicKey publicKey = RSAKeyManager.stringToPublicKey(publicKeyString);
+        return RSAKeyManager.publicKeyToString(publicKey);
+    }
+
+    @Benchmark
+    public String aesKeyRoundTrip() {
+        return AESUtils.keyToString(AESUtils.stringToKey(aesKeyString));
+    }
+}
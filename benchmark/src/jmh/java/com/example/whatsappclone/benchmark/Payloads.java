@@ -0,0 +1,26 @@
+package com.example.whatsappclone.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic message bodies for the benchmarks
+ */
+final class Payloads {
+    private static final String ALPHABET =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,!?";
+
+    private Payloads() {
+    }
+
+    /**
+     * ASCII text of exactly the given number of bytes
+     */
+    static String text(int bytes) {
+        Random random = new Random(bytes);
+        StringBuilder builder = new StringBuilder(bytes);
+        for (int i = 0; i < bytes; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.content.Context with in-memory SharedPreferences
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private final Map<String, InMemoryPreferences> preferences = new HashMap<>();
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        InMemoryPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new InMemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    private static class InMemoryPreferences implements SharedPreferences {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public String getString(String key, String defValue) {
+            String value = values.get(key);
+            return value != null ? value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, String> pending = new HashMap<>();
+                private boolean clear;
+
+                @Override
+                public Editor putString(String key, String value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    pending.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    clear = true;
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (Map.Entry<String, String> entry : pending.entrySet()) {
+                        if (entry.getValue() == null) {
+                            values.remove(entry.getKey());
+                        } else {
+                            values.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+            };
+        }
+    }
+}
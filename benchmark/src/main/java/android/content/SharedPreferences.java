@@ -0,0 +1,24 @@
+package android.content;
+
+/**
+ * JVM stand-in for the parts of android.content.SharedPreferences used by the crypto utils
+ */
+public interface SharedPreferences {
+    String getString(String key, String defValue);
+
+    boolean contains(String key);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putString(String key, String value);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        boolean commit();
+
+        void apply();
+    }
+}
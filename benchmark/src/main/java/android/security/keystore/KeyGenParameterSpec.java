@@ -0,0 +1,34 @@
+package android.security.keystore;
+
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * JVM stand-in for android.security.keystore.KeyGenParameterSpec. There is no
+ * AndroidKeyStore on the JVM, so RSAKeyManager always falls back to software keys.
+ */
+public final class KeyGenParameterSpec implements AlgorithmParameterSpec {
+
+    private KeyGenParameterSpec() {
+    }
+
+    public static final class Builder {
+        public Builder(String keystoreAlias, int purposes) {
+        }
+
+        public Builder setKeySize(int keySize) {
+            return this;
+        }
+
+        public Builder setDigests(String... digests) {
+            return this;
+        }
+
+        public Builder setEncryptionPaddings(String... paddings) {
+            return this;
+        }
+
+        public KeyGenParameterSpec build() {
+            return new KeyGenParameterSpec();
+        }
+    }
+}
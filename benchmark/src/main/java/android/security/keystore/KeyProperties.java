@@ -0,0 +1,16 @@
+package android.security.keystore;
+
+/**
+ * JVM stand-in for the android.security.keystore.KeyProperties constants used by AndroidKeyStoreStorage
+ */
+public final class KeyProperties {
+    public static final String KEY_ALGORITHM_RSA = "RSA";
+    public static final int PURPOSE_ENCRYPT = 1;
+    public static final int PURPOSE_DECRYPT = 2;
+    public static final String DIGEST_SHA1 = "SHA-1";
+    public static final String DIGEST_SHA256 = "SHA-256";
+    public static final String ENCRYPTION_PADDING_RSA_OAEP = "OAEPPadding";
+
+    private KeyProperties() {
+    }
+}
@@ -0,0 +1,55 @@
+package android.util;
+
+/**
+ * JVM stand-in for android.util.Base64, backed by java.util.Base64
+ *
+ * Supports the flags used by the app (DEFAULT, NO_WRAP, NO_PADDING, URL_SAFE).
+ */
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if ((flags & NO_WRAP) != 0) {
+            encoder = java.util.Base64.getEncoder();
+        } else {
+            // Android wraps at 76 characters and ends with a line break
+            byte[] separator = (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+            encoder = java.util.Base64.getMimeEncoder(76, separator);
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        return encoder.encode(input);
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(java.nio.charset.StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        try {
+            if ((flags & URL_SAFE) != 0) {
+                return java.util.Base64.getUrlDecoder().decode(input);
+            }
+            // The MIME decoder skips line breaks like Android's decoder does
+            return java.util.Base64.getMimeDecoder().decode(input);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("bad base-64", e);
+        }
+    }
+}